@@ -0,0 +1,91 @@
+package com.hmdp.jmh;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import com.hmdp.entity.Shop;
+import com.hmdp.utils.BinaryCacheCodec;
+import com.hmdp.utils.RedisData;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CacheClient 中店铺缓存的序列化开销：写缓存时 RedisData -> json，读缓存时 json -> RedisData -> Shop，
+ * binary开头的方法为 BinaryCacheCodec 的对应操作
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CacheSerializationBenchmark {
+
+    private RedisData redisData;
+
+    private String json;
+
+    private BinaryCacheCodec codec;
+
+    private byte[] binary;
+
+    @Setup
+    public void setup() {
+        Shop shop = new Shop();
+        shop.setId(1L);
+        shop.setName("103茶餐厅");
+        shop.setTypeId(1L);
+        shop.setImages("https://qcloud.dpfile.com/pc/jiclIsCKmOI2arxKN1Uf0Hx3PucIJH8q0QSz-Z8llzcN56-_QiKuOvyio1OOxsRtFoXqu0G3iT2T27qat3WhLVEuLYk00OmSS1IdNpm8K8sG4JN9RIm2mTKcbLtc2o2vfCF2ubeXzk49OsGrXt_KYDCngOyCwZK-s3fqawWswzk.jpg");
+        shop.setArea("大关");
+        shop.setAddress("金华路锦昌文华苑29号");
+        shop.setX(120.149192);
+        shop.setY(30.316078);
+        shop.setAvgPrice(80L);
+        shop.setSold(4215);
+        shop.setComments(3035);
+        shop.setScore(37);
+        shop.setOpenHours("10:00-22:00");
+        shop.setCreateTime(LocalDateTime.now());
+        shop.setUpdateTime(LocalDateTime.now());
+        redisData = new RedisData();
+        redisData.setExpireTime(LocalDateTime.now().plusSeconds(30));
+        redisData.setData(shop);
+        json = JSONUtil.toJsonStr(redisData);
+        codec = new BinaryCacheCodec();
+        binary = codec.encodeLogicExpire(shop, redisData.getExpireTime());
+    }
+
+    @Benchmark
+    public String write() {
+        return JSONUtil.toJsonStr(redisData);
+    }
+
+    @Benchmark
+    public Shop read() {
+        RedisData data = JSONUtil.toBean(json, RedisData.class);
+        return JSONUtil.toBean((JSONObject) data.getData(), Shop.class);
+    }
+
+    @Benchmark
+    public Shop roundTrip() {
+        RedisData data = JSONUtil.toBean(JSONUtil.toJsonStr(redisData), RedisData.class);
+        return JSONUtil.toBean((JSONObject) data.getData(), Shop.class);
+    }
+
+    @Benchmark
+    public byte[] binaryWrite() {
+        return codec.encodeLogicExpire(redisData.getData(), redisData.getExpireTime());
+    }
+
+    @Benchmark
+    public Shop binaryRead() {
+        return (Shop) codec.decodeLogicExpire(binary, Shop.class).getData();
+    }
+
+    @Benchmark
+    public Shop binaryRoundTrip() {
+        byte[] bytes = codec.encodeLogicExpire(redisData.getData(), redisData.getExpireTime());
+        return (Shop) codec.decodeLogicExpire(bytes, Shop.class).getData();
+    }
+}
@@ -0,0 +1,55 @@
+package com.hmdp.jmh;
+
+import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.SnowflakeIdWorker;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RedisIdWorker.nextId("order") 在三种模式下的开销：
+ * incr 每个id一次INCR，segment 号段本地分配，snowflake 本地雪花算法
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IdWorkerBenchmark {
+
+    @Param({"incr", "segment", "snowflake"})
+    private String mode;
+
+    private RedisIdWorker redisIdWorker;
+
+    @Setup(Level.Trial)
+    public void setup(RedisState redis) {
+        redisIdWorker = new RedisIdWorker(redis.stringRedisTemplate);
+        ReflectionTestUtils.setField(redisIdWorker, "segmentStep", "incr".equals(mode) ? 1L : 1000L);
+        ReflectionTestUtils.setField(redisIdWorker, "prefetchRatio", 0.2);
+        ReflectionTestUtils.setField(redisIdWorker, "snowflakePrefixes",
+                "snowflake".equals(mode) ? Collections.singleton("order") : Collections.emptySet());
+        SnowflakeIdWorker snowflakeIdWorker = new SnowflakeIdWorker();
+        ReflectionTestUtils.setField(snowflakeIdWorker, "stringRedisTemplate", redis.stringRedisTemplate);
+        //压测期间没有续期任务，租约设置得足够长
+        ReflectionTestUtils.setField(snowflakeIdWorker, "leaseTtlMillis", TimeUnit.HOURS.toMillis(1));
+        ReflectionTestUtils.setField(snowflakeIdWorker, "renewIntervalMillis", 10000L);
+        ReflectionTestUtils.setField(snowflakeIdWorker, "maxBackwardMillis", 1000L);
+        ReflectionTestUtils.invokeMethod(snowflakeIdWorker, "init");
+        ReflectionTestUtils.setField(redisIdWorker, "snowflakeIdWorker", snowflakeIdWorker);
+    }
+
+    @Benchmark
+    public long nextId() {
+        return redisIdWorker.nextId("order");
+    }
+
+    @Benchmark
+    @Threads(8)
+    public long nextIdContended() {
+        return redisIdWorker.nextId("order");
+    }
+}
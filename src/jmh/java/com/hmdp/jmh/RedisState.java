@@ -0,0 +1,44 @@
+package com.hmdp.jmh;
+
+import com.hmdp.benchmark.LocalRedisServer;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.data.redis.connection.RedisPassword;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+/**
+ * 每个JMH fork启动一个本地redis-server，并创建连接它的StringRedisTemplate
+ */
+@State(Scope.Benchmark)
+public class RedisState {
+
+    private LocalRedisServer server;
+
+    private LettuceConnectionFactory connectionFactory;
+
+    StringRedisTemplate stringRedisTemplate;
+
+    @Setup(Level.Trial)
+    public void start() throws Exception {
+        if (!LocalRedisServer.isAvailable()) {
+            throw new IllegalStateException("PATH中没有redis-server，可以用 -Dbench.redis-server 指定");
+        }
+        server = LocalRedisServer.start();
+        RedisStandaloneConfiguration configuration = new RedisStandaloneConfiguration("127.0.0.1", server.getPort());
+        configuration.setPassword(RedisPassword.of(LocalRedisServer.PASSWORD));
+        connectionFactory = new LettuceConnectionFactory(configuration);
+        connectionFactory.afterPropertiesSet();
+        stringRedisTemplate = new StringRedisTemplate(connectionFactory);
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() throws Exception {
+        connectionFactory.destroy();
+        server.close();
+    }
+}
@@ -0,0 +1,45 @@
+package com.hmdp.jmh;
+
+import com.hmdp.utils.SimpleRedisLock;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SimpleRedisLock 一次加锁+解锁的往返开销，每个线程使用自己的锁，不包含锁竞争
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class SimpleRedisLockBenchmark {
+
+    private SimpleRedisLock lock;
+
+    @Setup(Level.Trial)
+    public void setup(RedisState redis) {
+        lock = new SimpleRedisLock("jmh:" + Thread.currentThread().getId(), redis.stringRedisTemplate);
+    }
+
+    @Benchmark
+    public boolean tryLockUnlock() {
+        boolean locked = lock.tryLock(10);
+        if (locked) {
+            lock.unlock();
+        }
+        return locked;
+    }
+
+    @Benchmark
+    public boolean reentrantLockUnlock() {
+        boolean locked = lock.tryLock();
+        if (locked) {
+            lock.tryLock();
+            lock.unlock();
+            lock.unlock();
+        }
+        return locked;
+    }
+}
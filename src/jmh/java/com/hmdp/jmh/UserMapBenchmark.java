@@ -0,0 +1,46 @@
+package com.hmdp.jmh;
+
+import cn.hutool.core.bean.BeanUtil;
+import com.hmdp.dto.UserDTO;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RefreshTokenInterceptor 每个请求把登录用户的hash转成UserDTO的开销，手写赋值作为对照
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class UserMapBenchmark {
+
+    private Map<Object, Object> userMap;
+
+    @Setup
+    public void setup() {
+        //与 UserServiceImpl 登录时写入 login:token:{token} 的字段一致
+        userMap = new HashMap<>();
+        userMap.put("id", "1010");
+        userMap.put("nickName", "user_slxaxy2au9");
+        userMap.put("icon", "");
+    }
+
+    @Benchmark
+    public UserDTO fillBeanWithMap() {
+        return BeanUtil.fillBeanWithMap(userMap, new UserDTO(), false);
+    }
+
+    @Benchmark
+    public UserDTO manual() {
+        UserDTO userDTO = new UserDTO();
+        userDTO.setId(Long.valueOf((String) userMap.get("id")));
+        userDTO.setNickName((String) userMap.get("nickName"));
+        userDTO.setIcon((String) userMap.get("icon"));
+        return userDTO;
+    }
+}
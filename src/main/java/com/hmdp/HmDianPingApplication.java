@@ -5,9 +5,11 @@ import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.EnableAspectJAutoProxy;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @MapperScan("com.hmdp.mapper")
 @SpringBootApplication
+@EnableScheduling
 @EnableAspectJAutoProxy(exposeProxy = true)//暴露代理对象,才能使用AopContext.currentProxy()获取代理对象，用于解决同一个类中方法调用不走代理的问题（事务失效）
 public class HmDianPingApplication {
 
@@ -1,5 +1,6 @@
 package com.hmdp.config;
 
+import com.hmdp.interceptors.AdminInterceptor;
 import com.hmdp.interceptors.LoginInterceptor;
 import com.hmdp.interceptors.RefreshTokenInterceptor;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -19,6 +20,9 @@ public class MvcConfig implements WebMvcConfigurer {
     @Autowired
     private RefreshTokenInterceptor refreshTokenInterceptor;
 
+    @Autowired
+    private AdminInterceptor adminInterceptor;
+
     @Override
     public void addInterceptors(InterceptorRegistry registry) {
         //登录拦截器
@@ -32,6 +36,12 @@ public class MvcConfig implements WebMvcConfigurer {
                         "/upload/**",
                         "/blog/hot"
                 ).order(1);
+        //管理接口拦截器，在登录拦截器之后校验管理员身份
+        registry.addInterceptor(adminInterceptor)
+                .addPathPatterns(
+                        "/voucher/seckill/*/stock",
+                        "/voucher-order/dlq/**"
+                ).order(2);
         //token刷新拦截器
         registry.addInterceptor(refreshTokenInterceptor)
                 .addPathPatterns("/**").order(0);
@@ -10,13 +10,34 @@ public class RedisConstants {
 
     public static final Long CACHE_SHOP_TTL = 30L;
     public static final String CACHE_SHOP_KEY = "cache:shop:";
+    public static final String CACHE_INVALIDATE_CHANNEL = "cache:invalidate";
+    public static final String BLOOM_KEY = "bloom:";
+    public static final String BLOOM_REBUILT_KEY = "bloom:rebuilt:";
+    public static final String BLOOM_SYNC_CHANNEL = "bloom:sync";
+
+    public static final Long CACHE_USER_TTL = 30L;
+    public static final String CACHE_USER_KEY = "cache:user:";
 
     public static final String CACHE_SHOPTYPE_KEY = "cache:shoptype:";
 
     public static final String LOCK_SHOP_KEY = "lock:shop:";
     public static final Long LOCK_SHOP_TTL = 10L;
+    public static final Long LOCK_SHOP_WAIT_MILLIS = 1000L;
+    public static final String LOCK_RELEASE_CHANNEL = "lock:release";
 
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
+    public static final String SECKILL_ORDER_KEY = "seckill:order:";
+    public static final String SECKILL_SHARDS_KEY = "seckill:shards:";
+    public static final String SECKILL_WINDOW_KEY = "seckill:window:";
+    public static final String SECKILL_RESTOCK_CHANNEL = "seckill:restock";
+    public static final String SECKILL_RECONCILE_LOCK_KEY = "seckill:reconcile:lock";
+    public static final String SECKILL_RECONCILE_DIFF_KEY = "seckill:reconcile:diffs";
+    public static final String SECKILL_ADMISSION_NODES_KEY = "seckill:admission:nodes";
+    public static final String ORDER_STATUS_KEY = "order:status:";
+    public static final Long ORDER_STATUS_TTL = 10L;
+    public static final String ID_WORKER_KEY = "id:worker:";
+    public static final String ID_WORKER_LAST_KEY = "id:worker:last:";
+    public static final String ID_WORKER_RELEASED_KEY = "id:worker:released:";
     public static final String BLOG_LIKED_KEY = "blog:liked:";
     public static final String FEED_KEY = "feed:";
     public static final String SHOP_GEO_KEY = "shop:geo:";
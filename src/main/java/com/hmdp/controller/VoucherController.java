@@ -46,6 +46,21 @@ public class VoucherController {
         return Result.ok(voucher.getId());
     }
 
+    /**
+     * 秒杀券补货，需要管理员权限（AdminInterceptor）
+     * @param voucherId 优惠券id
+     * @param count 增加的库存
+     * @return 无
+     */
+    @PutMapping("seckill/{id}/stock")
+    public Result addSeckillStock(@PathVariable("id") Long voucherId, @RequestParam("count") Integer count) {
+        if (count == null || count <= 0) {
+            return Result.fail("补货数量必须大于0");
+        }
+        voucherService.addSeckillStock(voucherId, count);
+        return Result.ok();
+    }
+
     /**
      * 查询店铺的优惠券列表
      * @param shopId 店铺id
@@ -0,0 +1,31 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+@Data
+public class OrderStatusDTO {
+    /**
+     * 处理中，订单还在队列中或尚未写入状态
+     */
+    public static final String PROCESSING = "PROCESSING";
+    /**
+     * 已落库
+     */
+    public static final String SUCCESS = "SUCCESS";
+    /**
+     * 重复下单
+     */
+    public static final String DUPLICATE = "DUPLICATE";
+    /**
+     * 库存不足
+     */
+    public static final String SOLD_OUT = "SOLD_OUT";
+    /**
+     * 多次重试仍失败，已转入死信队列
+     */
+    public static final String FAILED = "FAILED";
+
+    private Long orderId;
+    private Long userId;
+    private String status;
+}
@@ -0,0 +1,26 @@
+package com.hmdp.dto;
+
+import com.hmdp.entity.VoucherOrder;
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 批量创建订单的结果
+ */
+@Data
+public class VoucherOrderBatchResult {
+    /**
+     * 成功落库的订单
+     */
+    private List<VoucherOrder> saved = new ArrayList<>();
+    /**
+     * 重复下单被拒绝的订单
+     */
+    private List<VoucherOrder> duplicates = new ArrayList<>();
+    /**
+     * 数据库库存不足被拒绝的订单
+     */
+    private List<VoucherOrder> soldOut = new ArrayList<>();
+}
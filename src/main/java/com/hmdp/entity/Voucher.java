@@ -90,6 +90,12 @@ public class Voucher implements Serializable {
     @TableField(exist = false)
     private LocalDateTime endTime;
 
+    /**
+     * 秒杀库存在redis中的分片数，为空或不大于1时不分片
+     */
+    @TableField(exist = false)
+    private Integer shards;
+
     /**
      * 创建时间
      */
@@ -0,0 +1,37 @@
+package com.hmdp.interceptors;
+
+import com.hmdp.dto.UserDTO;
+import com.hmdp.utils.UserHolder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.Set;
+
+/**
+ * 管理接口拦截器，只放行 hmdp.admin.user-ids 中配置的用户
+ */
+@Component
+public class AdminInterceptor implements HandlerInterceptor {
+
+    @Value("${hmdp.admin.user-ids:}")
+    private Set<Long> adminUserIds;
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        UserDTO user = UserHolder.getUser();
+        if (user == null){
+            //未登录
+            response.setStatus(401);
+            return false;
+        }
+        if (!adminUserIds.contains(user.getId())){
+            //不是管理员
+            response.setStatus(403);
+            return false;
+        }
+        return true;
+    }
+}
@@ -2,6 +2,9 @@ package com.hmdp.mapper;
 
 import com.hmdp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
 
 /**
  * <p>
@@ -13,4 +16,15 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  */
 public interface VoucherOrderMapper extends BaseMapper<VoucherOrder> {
 
+    /**
+     * 插入订单，同一用户重复购买同一优惠券时忽略
+     * @return 实际插入的行数，0表示重复下单
+     */
+    int insertIgnore(VoucherOrder voucherOrder);
+
+    /**
+     * 多行插入订单，违反唯一索引的行被忽略
+     * @return 实际插入的行数
+     */
+    int insertIgnoreBatch(@Param("list") List<VoucherOrder> voucherOrders);
 }
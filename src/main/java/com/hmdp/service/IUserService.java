@@ -3,9 +3,12 @@ package com.hmdp.service;
 import com.baomidou.mybatisplus.extension.service.IService;
 import com.hmdp.dto.LoginFormDTO;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.User;
 
 import javax.servlet.http.HttpSession;
+import java.util.Collection;
+import java.util.Map;
 
 /**
  * <p>
@@ -26,4 +29,7 @@ public interface IUserService extends IService<User> {
     Result sign();
 
     Result signCount();
+
+    // 批量查询用户，先查缓存，返回 用户id -> 用户，按ids的顺序排列
+    Map<Long, UserDTO> queryUserDTOs(Collection<Long> ids);
 }
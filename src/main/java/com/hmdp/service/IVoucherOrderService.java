@@ -1,9 +1,12 @@
 package com.hmdp.service;
 
 import com.hmdp.dto.Result;
+import com.hmdp.dto.VoucherOrderBatchResult;
 import com.hmdp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.List;
+
 /**
  * <p>
  *  服务类
@@ -20,4 +23,13 @@ public interface IVoucherOrderService extends IService<VoucherOrder> {
     Result createVoucherOrder(Long voucherId);
 
     void createVoucherOrder(VoucherOrder voucherOrder);
+
+    // 批量创建订单：按优惠券分组扣减库存，并用一条多行insert落库
+    VoucherOrderBatchResult createVoucherOrders(List<VoucherOrder> voucherOrders);
+
+    // 查询秒杀订单的异步处理结果
+    Result queryOrderStatus(Long orderId);
+
+    // 把死信队列中的订单消息重新投递到订单队列
+    Result replayDeadLetters(Integer count);
 }
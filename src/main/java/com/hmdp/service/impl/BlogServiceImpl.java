@@ -1,6 +1,5 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.BooleanUtil;
 import cn.hutool.core.util.StrUtil;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
@@ -9,12 +8,12 @@ import com.hmdp.dto.Result;
 import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.Blog;
 import com.hmdp.entity.ScrollResult;
-import com.hmdp.entity.User;
 import com.hmdp.mapper.BlogMapper;
 import com.hmdp.service.IBlogService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.service.IFollowService;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.BloomFilters;
 import com.hmdp.utils.UserHolder;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.ZSetOperations;
@@ -24,6 +23,7 @@ import javax.annotation.Resource;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
 
@@ -49,6 +49,9 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     @Resource
     private IFollowService followService;
 
+    @Resource
+    private BloomFilters bloomFilters;
+
     @Override
     public Result queryHotBlog(Integer current) {
         // 根据用户查询
@@ -59,23 +62,25 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         List<Blog> records = page.getRecords();
 
         // 查询用户
-        records.forEach(blog -> {
-            this.isBlogLiked(blog);
-            this.queryBlogUser(blog);
-        });
+        records.forEach(this::isBlogLiked);
+        this.queryBlogUsers(records);
         return Result.ok(records);
     }
 
 
     @Override
     public Result queryBlogById(Long id) {
+        //布隆过滤器判断一定不存在的笔记，不查询数据库
+        if (!bloomFilters.mightContain(BloomFilters.BLOG, id)) {
+            return Result.fail("笔记不存在");
+        }
         //查询blog
         Blog blog = getById(id);
         if (blog == null) {
             return Result.fail("笔记不存在");
         }
         //查询blog有关用户
-        queryBlogUser(blog);
+        queryBlogUsers(Collections.singletonList(blog));
         //查询blog是否被点赞
         isBlogLiked(blog);
         return Result.ok(blog);
@@ -133,14 +138,8 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         }
         //解析出其中的用户id
         List<Long> ids = top5.stream().map(Long::valueOf).collect(Collectors.toList());
-        String idStr = StrUtil.join(",", ids);
-        //根据用户id查询用户 WHERE id IN (5,1) ORDER BY FIELD(id,5,1)
-        List<UserDTO> userDTOS = userService.query()
-                .in("id", ids)
-                .last("ORDER BY FIELD(id," + idStr + ")").list()
-                .stream()
-                .map(user -> BeanUtil.copyProperties(user, UserDTO.class))
-                .collect(Collectors.toList());
+        //根据用户id批量查询用户，按点赞顺序返回
+        List<UserDTO> userDTOS = new ArrayList<>(userService.queryUserDTOs(ids).values());
         //返回
         return Result.ok(userDTOS);
     }
@@ -155,6 +154,8 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         if (!isSuccess) {
             return Result.fail("保存笔记失败！");
         }
+        // 登记到布隆过滤器
+        bloomFilters.add(BloomFilters.BLOG, blog.getId());
         // 查询笔记作者的所有粉丝
         followService.query().eq("user_id", user.getId()).list().forEach(fan -> {
             // 推送笔记id给粉丝
@@ -200,12 +201,10 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         String idStr = StrUtil.join(",", ids);
         List<Blog> blogs = query().in("id", ids)
                 .last("ORDER BY FIELD(id," + idStr + ")").list();
-        blogs.forEach(blog -> {
-            //查询blog有关用户
-            queryBlogUser(blog);
-            //查询blog是否被点赞
-            isBlogLiked(blog);
-        });
+        //查询blog有关用户
+        queryBlogUsers(blogs);
+        //查询blog是否被点赞
+        blogs.forEach(this::isBlogLiked);
         //封装结构返回
         ScrollResult scrollResult=new ScrollResult();
         scrollResult.setList(blogs);
@@ -214,10 +213,19 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         return Result.ok(scrollResult);
     }
 
-    private void queryBlogUser(Blog blog) {
-        Long userId = blog.getUserId();
-        User user = userService.getById(userId);
-        blog.setName(user.getNickName());
-        blog.setIcon(user.getIcon());
+    //批量查询blog有关用户，一次MGET查询缓存，未命中的用户一次查询数据库
+    private void queryBlogUsers(List<Blog> blogs) {
+        if (blogs.isEmpty()) {
+            return;
+        }
+        Map<Long, UserDTO> users = userService.queryUserDTOs(
+                blogs.stream().map(Blog::getUserId).collect(Collectors.toList()));
+        for (Blog blog : blogs) {
+            UserDTO user = users.get(blog.getUserId());
+            if (user != null) {
+                blog.setName(user.getNickName());
+                blog.setIcon(user.getIcon());
+            }
+        }
     }
 }
@@ -1,9 +1,6 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.core.util.BooleanUtil;
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
+import cn.hutool.core.bean.BeanUtil;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.hmdp.constant.SystemConstants;
 import com.hmdp.dto.Result;
@@ -11,8 +8,8 @@ import com.hmdp.entity.Shop;
 import com.hmdp.mapper.ShopMapper;
 import com.hmdp.service.IShopService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.BloomFilters;
 import com.hmdp.utils.CacheClient;
-import com.hmdp.utils.RedisData;
 import org.springframework.data.geo.Distance;
 import org.springframework.data.geo.GeoResult;
 import org.springframework.data.geo.GeoResults;
@@ -24,11 +21,9 @@ import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.Resource;
 
-import java.time.LocalDateTime;
 import java.util.*;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import static com.hmdp.constant.RedisConstants.*;
 
@@ -50,6 +45,19 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     @Resource
     private CacheClient cacheClient;
 
+    @Resource
+    private BloomFilters bloomFilters;
+
+    @Override
+    public boolean save(Shop shop) {
+        boolean isSuccess = super.save(shop);
+        if (isSuccess) {
+            //登记到布隆过滤器，之后才能通过缓存查询到
+            bloomFilters.add(BloomFilters.SHOP, shop.getId());
+        }
+        return isSuccess;
+    }
+
     @Override
     public Result queryById(Long id) {
         //使用set null解决缓存穿透
@@ -79,147 +87,17 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
 
     //使用set null解决缓存穿透
     public Shop queryWithPassThrough(Long id){
-        String key = CACHE_SHOP_KEY + id;
-        //从redis中查询商户缓存
-        String shopJson = stringRedisTemplate.opsForValue().get(key);
-
-        if (StrUtil.isNotBlank(shopJson)){
-            //查询到，直接返回
-            Shop shop = JSONUtil.toBean(shopJson, Shop.class);
-            return shop;
-        }
-        //判断命中的是否是空值
-        if (shopJson!=null){
-            //返回一个错误信息
-//            return Result.fail("店铺信息不存在");
-            return null;
-        }
-
-        //未查询到，查询数据库
-        Shop shop = this.getById(id);
-
-        //查询不到，返回错误信息
-        if (shop == null){
-            //存入空值，防止缓存穿透
-            stringRedisTemplate.opsForValue().set(key,"",CACHE_NULL_TTL, TimeUnit.MINUTES);
-//            return Result.fail("商户不存在");
-            return null;
-        }
-        //查询到，存入redis
-        stringRedisTemplate.opsForValue().set(key,JSONUtil.toJsonStr(shop),CACHE_SHOP_TTL, TimeUnit.MINUTES);
-        return shop;
+        return cacheClient.queryWithPassThrough(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
     }
 
     //互斥锁，解决缓存击穿
     public Shop queryWithMutex(Long id){
-        String key = CACHE_SHOP_KEY + id;
-        //从redis中查询商户缓存
-        String shopJson = stringRedisTemplate.opsForValue().get(key);
-
-        if (StrUtil.isNotBlank(shopJson)){
-            //查询到，直接返回
-            return  JSONUtil.toBean(shopJson, Shop.class);
-        }
-        //判断命中的是否是空值
-        if (shopJson!=null){
-            //返回一个错误信息
-            return null;
-        }
-        //实现缓存重构
-        //获取互斥锁
-        String lockKey = LOCK_SHOP_KEY + id;
-        Shop shop = null;
-        try {
-            boolean isLock = tryLock(lockKey);
-            //判断是否获取锁成功
-            if (!isLock){
-                //如果不成功，则休眠重试
-                Thread.sleep(50);
-                return queryWithMutex(id);
-            }
-            //获取锁成功，二次查询缓存中有无数据
-            shopJson = stringRedisTemplate.opsForValue().get(key);
-            if (StrUtil.isNotBlank(shopJson)){
-                //查询到，直接返回
-                return  JSONUtil.toBean(shopJson, Shop.class);
-            }
-
-            //模拟重建延时
-            Thread.sleep(200);
-            //未查询到，查询数据库
-            shop = this.getById(id);
-
-            //查询不到，返回错误信息
-            if (shop == null){
-                //存入空值，防止缓存穿透
-                stringRedisTemplate.opsForValue().set(key,"",CACHE_NULL_TTL, TimeUnit.MINUTES);
-                return null;
-            }
-            //查询到，存入redis
-            stringRedisTemplate.opsForValue().set(key,JSONUtil.toJsonStr(shop),CACHE_SHOP_TTL, TimeUnit.MINUTES);
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
-        } finally {
-            //释放互斥锁
-            unLock(lockKey);
-        }
-        return shop;
+        return cacheClient.queryWithMutex(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
     }
 
-    //定义用于重建缓存的线程池
-    private static final ExecutorService CACHE_REBUILD_POOL = Executors.newFixedThreadPool(10);
     //逻辑过期，解决缓存击穿
     public Shop queryWithLogicExpire(Long id){
-        String key = CACHE_SHOP_KEY + id;
-        //从redis中查询商户缓存
-        String json = stringRedisTemplate.opsForValue().get(key);
-
-        if (StrUtil.isBlank(json)){
-            //查询不到，直接返回空
-            return  null;
-        }
-        //查询到，判断逻辑过期时间
-        RedisData redisData = JSONUtil.toBean(json, RedisData.class);
-        Shop shop = JSONUtil.toBean((JSONObject) redisData.getData(), Shop.class);
-        LocalDateTime expireTime = redisData.getExpireTime();
-        if (expireTime.isAfter(LocalDateTime.now())){
-            //如果过期时间大于当前时间，未过期，则直接返回
-            return shop;
-        }
-        //如果过期时间小于当前时间，已过期，需要缓存重建
-        //尝试获取互斥锁
-        String lockKey = LOCK_SHOP_KEY + id;
-        boolean isLock = tryLock(lockKey);
-        if (!isLock){
-            //如果获取锁失败，则直接返回旧数据
-            return shop;
-        }
-        //由于多线程，获取锁成功后，需要再次判断缓存是否过期
-        json = stringRedisTemplate.opsForValue().get(key);
-        if (StrUtil.isNotBlank(json)){
-            //判断缓存是否过期，如果缓存未过期，则直接返回
-            RedisData redisData2 = JSONUtil.toBean(json, RedisData.class);
-            LocalDateTime expireTime2 = redisData2.getExpireTime();
-            if (expireTime2.isAfter(LocalDateTime.now())){
-                return JSONUtil.toBean((JSONObject) redisData2.getData(), Shop.class);
-            }
-
-        }
-        //如果获取锁成功，则开启新的独立线程重建缓存，返回旧数据
-        CACHE_REBUILD_POOL.submit(()->{
-            try {
-                //重建缓存
-                this.saveShop2Redis(id,20L);
-            } catch (Exception e) {
-                throw new RuntimeException(e);
-            } finally {
-                //释放互斥锁
-                unLock(lockKey);
-            }
-        });
-
-        //先返回过期的旧数据
-        return shop;
+        return cacheClient.queryWithLogicExpire(CACHE_SHOP_KEY, id, Shop.class, this::getById, 20L, TimeUnit.SECONDS);
     }
 
     @Override
@@ -231,8 +109,8 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
 
         //更新数据库
         this.updateById(shop);
-        //删除redis缓存
-        stringRedisTemplate.delete(CACHE_SHOP_KEY + shop.getId());
+        //删除redis缓存，并通知所有节点删除本地缓存
+        cacheClient.delete(CACHE_SHOP_KEY + shop.getId());
         //返回成功
         return Result.ok();
     }
@@ -283,38 +161,30 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
             Distance distance = result.getDistance();
             distanceMap.put(shopIdStr, distance);
         });
-        // 5.根据id查询Shop
-        String idStr = StrUtil.join(",", ids);
-        List<Shop> shops = query().in("id", ids).last("ORDER BY FIELD(id," + idStr + ")").list();
-        for (Shop shop : shops) {
-            shop.setDistance(distanceMap.get(shop.getId().toString()).getValue());
+        // 5.根据id批量查询Shop，一次MGET查询缓存，未命中的店铺一次查询数据库，按距离顺序返回
+        Map<Long, Shop> cached = cacheClient.queryBatch(CACHE_SHOP_KEY, ids, Shop.class,
+                missIds -> listByIds(missIds).stream().collect(Collectors.toMap(Shop::getId, shop -> shop)),
+                CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        List<Shop> shops = new ArrayList<>(cached.size());
+        for (Shop shop : cached.values()) {
+            // 缓存中的对象是共享的，复制后再设置距离
+            Shop copy = BeanUtil.copyProperties(shop, Shop.class);
+            copy.setDistance(distanceMap.get(shop.getId().toString()).getValue());
+            shops.add(copy);
         }
         // 6.返回
         return Result.ok(shops);
     }
 
 
-    private boolean tryLock(String key){
-        Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, "1", LOCK_SHOP_TTL, TimeUnit.SECONDS);
-        return BooleanUtil.isTrue(flag);
-    }
-
-    private void unLock(String key){
-        stringRedisTemplate.delete(key);
-    }
-
     public void saveShop2Redis(Long id,Long expireSeconds){
 
         try {
             //查询店铺数据
             Shop shop =getById(id);
 //            Thread.sleep(200);
-            //封装逻辑过期时间,解决缓存击穿
-            RedisData redisData = new RedisData();
-            redisData.setExpireTime(LocalDateTime.now().plusSeconds(expireSeconds));
-            redisData.setData(shop);
-            //写入redis
-            stringRedisTemplate.opsForValue().set(CACHE_SHOP_KEY + id,JSONUtil.toJsonStr(redisData));
+            //封装逻辑过期时间,解决缓存击穿，写入redis
+            cacheClient.setWithLogicExpire(CACHE_SHOP_KEY + id, shop, expireSeconds, TimeUnit.SECONDS);
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
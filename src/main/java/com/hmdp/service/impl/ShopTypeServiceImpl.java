@@ -1,14 +1,11 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONUtil;
 import com.hmdp.dto.Result;
-import com.hmdp.entity.Shop;
 import com.hmdp.entity.ShopType;
 import com.hmdp.mapper.ShopTypeMapper;
 import com.hmdp.service.IShopTypeService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
-import org.springframework.data.redis.core.StringRedisTemplate;
+import com.hmdp.utils.CacheClient;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.Resource;
@@ -17,7 +14,6 @@ import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 import static com.hmdp.constant.RedisConstants.*;
-import static com.hmdp.constant.RedisConstants.CACHE_SHOP_KEY;
 
 /**
  * <p>
@@ -31,17 +27,16 @@ import static com.hmdp.constant.RedisConstants.CACHE_SHOP_KEY;
 public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> implements IShopTypeService {
 
     @Resource
-    private StringRedisTemplate stringRedisTemplate;
+    private CacheClient cacheClient;
 
     @Override
     public Result queryList() {
         //从redis中查询商户类型缓存
-        String typeListJson = stringRedisTemplate.opsForValue().get(CACHE_SHOPTYPE_KEY);
+        List<ShopType> cached = cacheClient.getList(CACHE_SHOPTYPE_KEY, ShopType.class);
 
-        if (StrUtil.isNotBlank(typeListJson)){
+        if (cached != null && !cached.isEmpty()){
             //查询到，直接返回
-            List<ShopType> typeList = JSONUtil.toList(JSONUtil.parseArray(typeListJson), ShopType.class);
-            return Result.ok(typeList);
+            return Result.ok(cached);
         }
         //未查询到，查询数据库
         List<ShopType> typeList = this
@@ -52,7 +47,7 @@ public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> i
             return Result.fail("商户类型列表不存在");
         }
         //查询到，存入redis
-        stringRedisTemplate.opsForValue().set(CACHE_SHOPTYPE_KEY,JSONUtil.toJsonStr(typeList),30L, TimeUnit.MINUTES);
+        cacheClient.setList(CACHE_SHOPTYPE_KEY, typeList, ShopType.class, 30L, TimeUnit.MINUTES);
         //返回信息
         return Result.ok(typeList);
     }
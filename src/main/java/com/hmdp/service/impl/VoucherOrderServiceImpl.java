@@ -1,31 +1,46 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.core.bean.BeanUtil;
+import com.hmdp.dto.OrderStatusDTO;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.VoucherOrderBatchResult;
+import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.entity.VoucherOrder;
 import com.hmdp.mapper.VoucherOrderMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.OrderQueue;
+import com.hmdp.utils.OrderStatusStore;
 import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.SeckillAdmission;
+import com.hmdp.utils.SeckillStockShards;
+import com.hmdp.utils.SeckillWindowRegistry;
+import com.hmdp.utils.SoldOutRegistry;
 import com.hmdp.utils.UserHolder;
-import org.redisson.api.RLock;
-import org.redisson.api.RedissonClient;
-import org.springframework.aop.framework.AopContext;
+import com.hmdp.utils.UserLaneDispatcher;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.core.io.ClassPathResource;
-import org.springframework.data.redis.connection.stream.*;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.interceptor.TransactionAspectSupport;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
-import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.*;
+import java.util.stream.Collectors;
+
+import static com.hmdp.constant.RedisConstants.SECKILL_ORDER_KEY;
+import static com.hmdp.constant.RedisConstants.SECKILL_STOCK_KEY;
 
 /**
  * <p>
@@ -48,10 +63,31 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     private StringRedisTemplate stringRedisTemplate;
 
     @Resource
-    private  RedissonClient redissonClient;
+    private SoldOutRegistry soldOutRegistry;
+
+    @Resource
+    private SeckillStockShards seckillStockShards;
+
+    @Resource
+    private SeckillWindowRegistry seckillWindowRegistry;
+
+    @Resource
+    private SeckillAdmission seckillAdmission;
 
+    @Resource
+    private OrderStatusStore orderStatusStore;
+
+    @Resource
+    private UserLaneDispatcher userLaneDispatcher;
+
+    //注入自己的代理对象，解决事务失效问题；@Lazy延迟解析，避免循环依赖
+    @Lazy
+    @Resource
     private IVoucherOrderService proxy;
 
+    //资格判断通过但订单消息发送失败，库存已经归还；不能与lua脚本和SeckillWindowRegistry的返回值重复
+    private static final int PUBLISH_FAILED = 6;
+
     //加载秒杀订单校验资格lua脚本
     private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
 
@@ -61,82 +97,82 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         SECKILL_SCRIPT.setResultType(Long.class);
     }
 
-    //创建订单阻塞队列
-    private BlockingQueue<VoucherOrder> orderTasks =new ArrayBlockingQueue<>(1024*1024);
+    //分片模式下在用户主分片上去重占位并尝试扣减库存的脚本
+    private static final DefaultRedisScript<Long> SECKILL_SHARD_CLAIM_SCRIPT;
 
-    //创建订单线程
-    private static final ExecutorService SECKILL_ORDER_EXECUTOR = Executors.newSingleThreadExecutor();
+    //分片模式下尝试扣减其它分片库存的脚本
+    private static final DefaultRedisScript<Long> SECKILL_SHARD_TAKE_SCRIPT;
 
-    private String queueName ="stream.order";
+    static {
+        SECKILL_SHARD_CLAIM_SCRIPT = new DefaultRedisScript<>();
+        SECKILL_SHARD_CLAIM_SCRIPT.setLocation(new ClassPathResource("seckill_shard_claim.lua"));
+        SECKILL_SHARD_CLAIM_SCRIPT.setResultType(Long.class);
+        SECKILL_SHARD_TAKE_SCRIPT = new DefaultRedisScript<>();
+        SECKILL_SHARD_TAKE_SCRIPT.setLocation(new ClassPathResource("seckill_shard_take.lua"));
+        SECKILL_SHARD_TAKE_SCRIPT.setResultType(Long.class);
+    }
+
+    //秒杀订单队列，实现由 hmdp.seckill.queue.type 决定
+    @Resource
+    private OrderQueue orderQueue;
 
-    //初始化创建订单线程,当类加载时就会执行
+    //开始消费订单队列，订单交给handleOrders批量落库
     @PostConstruct
     private void init(){
-        SECKILL_ORDER_EXECUTOR.submit(()->{
-            while (true){
-                try {
-                    //从消息队列中获取订单信息 XREADGROUP GROUP g1 c1 COUNT 1 BLOCK 2000 STREAMS streams.order >
-                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                            Consumer.from("g1", "c1"),
-                            StreamReadOptions.empty().count(1).block(Duration.ofSeconds(2)),
-                            StreamOffset.create(queueName, ReadOffset.lastConsumed())
-                    );
-                    //判断消息是否获取成功
-                    if (list.isEmpty()||list==null){
-                        //获取失败，说明没有消息，进入下一次循环
-                        continue;
-                    }
-                    //解析消息中的订单信息
-                    MapRecord<String, Object, Object> record = list.get(0);
-                    Map<Object, Object> values = record.getValue();
-                    VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(values, new VoucherOrder(), true);
-                    //如果获取成功，可以下单
-                    handleVoucherOrder(voucherOrder);
-                    //ACK确认 SACK stream.orders g1 id
-                    stringRedisTemplate.opsForStream().acknowledge(queueName,"g1",record.getId());
-
-
-                } catch (Exception e) {
-                    log.error("订单处理异常");
-                    handlePendingList();
-                }
+        orderQueue.start(new OrderQueue.Handler() {
+            @Override
+            public List<VoucherOrder> handle(List<VoucherOrder> orders) throws InterruptedException {
+                return handleOrders(orders);
+            }
+
+            @Override
+            public void onDeadLetter(VoucherOrder order) {
+                //告知客户端订单失败
+                orderStatusStore.write(Collections.singletonList(order), OrderStatusDTO.FAILED);
             }
         });
     }
 
-    private void handlePendingList() {
-        while (true){
+    @PreDestroy
+    private void destroy(){
+        orderQueue.stop();
+    }
+
+    //一批订单按用户所在通道拆分，每个通道在一个事务中批量落库，返回落库成功的通道中的订单
+    private List<VoucherOrder> handleOrders(List<VoucherOrder> voucherOrders) throws InterruptedException {
+        Map<Integer, List<VoucherOrder>> laneOrders = new HashMap<>();
+        for (VoucherOrder voucherOrder : voucherOrders) {
+            int lane = userLaneDispatcher.laneOf(voucherOrder.getUserId());
+            laneOrders.computeIfAbsent(lane, k -> new ArrayList<>()).add(voucherOrder);
+        }
+        //批量下单，同一用户的订单总在同一个线程上串行处理，不同通道并行；(user_id, voucher_id)唯一索引是最终保障
+        Map<Integer, Future<VoucherOrderBatchResult>> futures = new HashMap<>();
+        laneOrders.forEach((lane, orders) ->
+                futures.put(lane, userLaneDispatcher.submitToLane(lane, () -> proxy.createVoucherOrders(orders))));
+        List<VoucherOrder> handled = new ArrayList<>(voucherOrders.size());
+        for (Map.Entry<Integer, Future<VoucherOrderBatchResult>> entry : futures.entrySet()) {
             try {
-                //从消息队列中获取订单信息 XREADGROUP GROUP g1 c1 COUNT 1 STREAMS streams.order 0
-                List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                        Consumer.from("g1", "c1"),
-                        StreamReadOptions.empty().count(1),
-                        StreamOffset.create(queueName, ReadOffset.from("0"))
-                );
-                //判断消息是否获取成功
-                if (list.isEmpty()||list==null){
-                    //获取失败，说明pendingList没有异常消息，结束循环
-                    break;
-                }
-                //解析消息中的订单信息
-                MapRecord<String, Object, Object> record = list.get(0);
-                Map<Object, Object> values = record.getValue();
-                VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(values, new VoucherOrder(), true);
-                //如果获取成功，可以下单
-                handleVoucherOrder(voucherOrder);
-                //ACK确认 SACK stream.orders g1 id
-                stringRedisTemplate.opsForStream().acknowledge(queueName,"g1",record.getId());
-
-
-            } catch (Exception e) {
-                log.error("pendingList订单处理异常");
-                try {
-                    Thread.sleep(20);
-                } catch (InterruptedException ex) {
-                    throw new RuntimeException(ex);
-                }
+                VoucherOrderBatchResult batchResult = entry.getValue().get();
+                handled.addAll(laneOrders.get(entry.getKey()));
+                //写入订单处理结果，供客户端查询
+                writeOrderStatus(batchResult);
+            } catch (ExecutionException e) {
+                //处理失败的订单由队列负责重试
+                log.error("订单处理异常", e.getCause());
             }
         }
+        return handled;
+    }
+
+    private void writeOrderStatus(VoucherOrderBatchResult batchResult) {
+        orderStatusStore.write(batchResult.getSaved(), OrderStatusDTO.SUCCESS);
+        orderStatusStore.write(batchResult.getDuplicates(), OrderStatusDTO.DUPLICATE);
+        orderStatusStore.write(batchResult.getSoldOut(), OrderStatusDTO.SOLD_OUT);
+    }
+
+    @Override
+    public Result replayDeadLetters(Integer count) {
+        return Result.ok(orderQueue.replayDeadLetters(count));
     }
 
 //    //初始化创建订单线程,当类加载时就会执行
@@ -164,28 +200,131 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     //使用redis消息队列实现异步秒杀下单
     @Override
     public Result seckillVoucher(Long voucherId) throws InterruptedException {
+        //先用本地的秒杀时间窗口副本判断，不在窗口内直接返回
+        int window = seckillWindowRegistry.check(voucherId);
+        if (window != SeckillWindowRegistry.IN_WINDOW){
+            return Result.fail(seckillFailMessage(window));
+        }
+        //本节点已知售罄，直接返回，不访问redis也不消耗订单id
+        if (soldOutRegistry.isSoldOut(voucherId)){
+            return Result.fail("库存不足");
+        }
+        //本地令牌桶限流，超出库存对应预算的请求直接返回
+        if (!seckillAdmission.tryAcquire(voucherId)){
+            return Result.fail("活动火爆，请稍后重试");
+        }
+        long soldOutVersion = soldOutRegistry.version();
         //获取用户
         Long userId = UserHolder.getUser().getId();
         // 6.1.订单id
         long orderId = redisIdWorker.nextId("order");
-        //执行lua脚本
-        Long result = stringRedisTemplate.execute(
-                SECKILL_SCRIPT,
-                Collections.emptyList(),
-                voucherId.toString(), userId.toString(),String.valueOf(orderId)
-        );
+        int r;
+        int shards = seckillStockShards.shardCount(voucherId);
+        if (shards > 1){
+            //库存已分片
+            r = seckillSharded(voucherId, userId, orderId, shards);
+        } else {
+            //执行lua脚本，队列是redis stream时由脚本直接发送消息
+            String streamKey = orderQueue.scriptStreamKey();
+            Long result = stringRedisTemplate.execute(
+                    SECKILL_SCRIPT,
+                    Collections.emptyList(),
+                    voucherId.toString(), userId.toString(),String.valueOf(orderId),
+                    streamKey == null ? "" : streamKey
+            );
+            r = result.intValue();
+            if (r == 0 && streamKey == null){
+                r = publishOrRollback(orderId, userId, voucherId,
+                        SECKILL_STOCK_KEY + voucherId, SECKILL_ORDER_KEY + voucherId);
+            }
+        }
         //判断结果是否为0
-        int r =result.intValue();
         if (r != 0){
+            if (r == 1){
+                //库存不足，本地打上售罄标记
+                soldOutRegistry.markSoldOut(voucherId, soldOutVersion);
+            }
             //不为零，代表没有购买资格
-            return Result.fail(r==1?"库存不足":"请勿重复下单！");
+            return Result.fail(seckillFailMessage(r));
         }
 
-        proxy = (IVoucherOrderService) AopContext.currentProxy();
         //返回订单id
         return Result.ok(orderId);
     }
 
+    //秒杀脚本返回值对应的提示信息
+    private static String seckillFailMessage(int r) {
+        switch (r) {
+            case 1:
+                return "库存不足";
+            case 2:
+                return "请勿重复下单！";
+            case SeckillWindowRegistry.NOT_STARTED:
+                return "秒杀尚未开始！";
+            case SeckillWindowRegistry.ENDED:
+                return "秒杀已经结束！";
+            case SeckillWindowRegistry.NOT_FOUND:
+                return "秒杀券不存在！";
+            case PUBLISH_FAILED:
+                return "系统繁忙，请稍后重试";
+            default:
+                return "秒杀失败，请稍后重试";
+        }
+    }
+
+    //分片模式下的秒杀资格判断：先在用户主分片上去重占位，再从主分片开始依次尝试各分片的库存
+    //各分片位于不同的slot，无法在一个脚本中同时写消息队列，扣减成功后再由这里发送消息
+    private int seckillSharded(Long voucherId, Long userId, long orderId, int shards) {
+        int home = SeckillStockShards.homeShard(userId, shards);
+        String orderKey = SeckillStockShards.orderKey(voucherId, home);
+        Long result = stringRedisTemplate.execute(
+                SECKILL_SHARD_CLAIM_SCRIPT,
+                Arrays.asList(SeckillStockShards.stockKey(voucherId, home), orderKey,
+                        SeckillStockShards.windowKey(voucherId, home)),
+                userId.toString()
+        );
+        int r = result.intValue();
+        if (r > 1){
+            //重复下单或不在秒杀时间窗口内
+            return r;
+        }
+        //主分片没有库存，依次尝试其它分片
+        int taken = home;
+        for (int i = 1; r == 1 && i < shards; i++) {
+            taken = (home + i) % shards;
+            result = stringRedisTemplate.execute(
+                    SECKILL_SHARD_TAKE_SCRIPT,
+                    Collections.singletonList(SeckillStockShards.stockKey(voucherId, taken))
+            );
+            r = result.intValue();
+        }
+        if (r != 0){
+            //所有分片都没有库存，撤销占位
+            stringRedisTemplate.opsForSet().remove(orderKey, userId.toString());
+            return r;
+        }
+        //发送消息到队列
+        return publishOrRollback(orderId, userId, voucherId, SeckillStockShards.stockKey(voucherId, taken), orderKey);
+    }
+
+    //脚本已经扣减库存并记录购买用户，发送消息失败时归还库存、撤销购买记录，否则这份库存会永久丢失
+    private int publishOrRollback(long orderId, Long userId, Long voucherId, String stockKey, String orderKey) {
+        try {
+            orderQueue.publish(orderId, userId, voucherId);
+            return 0;
+        } catch (RuntimeException e) {
+            log.error("发送订单消息失败，归还库存，orderId=" + orderId, e);
+        }
+        //分片模式下两个key可能不在同一个slot，分开执行
+        stringRedisTemplate.opsForSet().remove(orderKey, userId.toString());
+        Long stock = stringRedisTemplate.opsForValue().increment(stockKey);
+        if (Long.valueOf(1).equals(stock)) {
+            //归还前已经售罄，通知其它节点清除售罄标记
+            soldOutRegistry.publishRestock(voucherId);
+        }
+        return PUBLISH_FAILED;
+    }
+
 //    //使用阻塞队列实现异步秒杀下单
 //    @Override
 //    public Result seckillVoucher(Long voucherId) throws InterruptedException {
@@ -224,30 +363,6 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
 
 
 
-    private void handleVoucherOrder(VoucherOrder voucherOrder) throws InterruptedException {
-        Long userId = voucherOrder.getUserId();
-        //创建锁对象
-//        SimpleRedisLock lock = new SimpleRedisLock("order:" + userId, stringRedisTemplate);
-        RLock lock = redissonClient.getLock("lock:order:" + userId);
-        //获取锁
-        boolean isLock = lock.tryLock(1200, TimeUnit.SECONDS);
-        //判断是否获取锁成功
-        if (!isLock) {
-            //获取锁失败
-            log.error("不允许重复下单！");
-            return;
-        }
-        // 下单
-
-        try {
-            //获取代理对象
-            proxy.createVoucherOrder(voucherOrder);
-        } finally {
-            //释放锁
-            lock.unlock();
-        }
-    }
-
 //    @Override
 //    public Result seckillVoucher(Long voucherId) throws InterruptedException {
 //        // 1.查询优惠券
@@ -304,73 +419,128 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
 
     @Transactional
     public Result createVoucherOrder(Long voucherId) {
-        // 5.一人一单
         Long userId = UserHolder.getUser().getId();
-        // 5.1.查询订单
-        Integer count = query().eq("user_id", userId).eq("voucher_id", voucherId).count();
-        // 5.2.判断是否已经下单
-        if (count > 0) {
+        //6.创建订单
+        VoucherOrder voucherOrder = new VoucherOrder();
+        // 6.1.订单id
+        long orderId = redisIdWorker.nextId("order");
+        voucherOrder.setId(orderId);
+        // 6.2.用户id
+        voucherOrder.setUserId(userId);
+        // 6.3.代金券id
+        voucherOrder.setVoucherId(voucherId);
+        // 5.一人一单，由(user_id, voucher_id)唯一索引保证 insert ignore into tb_voucher_order ...
+        if (getBaseMapper().insertIgnore(voucherOrder) == 0) {
             // 已经下单
             return Result.fail("请勿重复购买！");
         }
         //5，扣减库存
-//        boolean success = seckillVoucherService.update()
-//                .setSql("stock= stock -1")
-//                .eq("voucher_id", voucherId).update();
         //乐观锁
         boolean success = seckillVoucherService.update()
                 .setSql("stock= stock -1") //set stock = stock -1
-//                .eq("voucher_id", voucherId).eq("stock",voucher.getStock()).update(); //where id = ？ and stock = ?
-                .eq("voucher_id", voucherId).gt("stock", 0).update(); //where id = ？ and stock = ?
+                .eq("voucher_id", voucherId).gt("stock", 0).update(); //where id = ？ and stock > 0
         if (!success) {
-            //扣减库存
+            //库存不足，回滚已插入的订单
+            TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
             return Result.fail("库存不足！");
         }
-        //6.创建订单
-        VoucherOrder voucherOrder = new VoucherOrder();
-        // 6.1.订单id
-        long orderId = redisIdWorker.nextId("order");
-        voucherOrder.setId(orderId);
-        // 6.2.用户id
-        voucherOrder.setUserId(userId);
-        // 6.3.代金券id
-        voucherOrder.setVoucherId(voucherId);
-        save(voucherOrder);
-
         return Result.ok(orderId);
 
     }
 
     @Transactional
     public void createVoucherOrder(VoucherOrder voucherOrder) {
-        // 5.一人一单
-        Long userId = voucherOrder.getUserId();
-        // 5.1.查询订单
-        Integer count = query().eq("user_id", userId).eq("voucher_id", voucherOrder.getVoucherId()).count();
-        // 5.2.判断是否已经下单
-        if (count > 0) {
+        // 5.一人一单，由(user_id, voucher_id)唯一索引保证 insert ignore into tb_voucher_order ...
+        if (getBaseMapper().insertIgnore(voucherOrder) == 0) {
             // 已经下单
             log.error("请勿重复购买！");
             return;
         }
         //5，扣减库存
-//        boolean success = seckillVoucherService.update()
-//                .setSql("stock= stock -1")
-//                .eq("voucher_id", voucherId).update();
         //乐观锁
         boolean success = seckillVoucherService.update()
                 .setSql("stock= stock -1") //set stock = stock -1
                 .eq("voucher_id", voucherOrder.getVoucherId()).gt("stock", 0)
-                .update(); //where id = ？ and stock = ?
+                .update(); //where id = ？ and stock > 0
         if (!success) {
-            //扣减库存
+            //库存不足，回滚已插入的订单
             log.error("库存不足！");
-            return ;
+            TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
         }
-        //6.创建订单
-        save(voucherOrder);
-
+    }
 
+    @Transactional
+    public VoucherOrderBatchResult createVoucherOrders(List<VoucherOrder> voucherOrders) {
+        VoucherOrderBatchResult batchResult = new VoucherOrderBatchResult();
+        //按优惠券分组，每种优惠券只扣减一次库存
+        Map<Long, List<VoucherOrder>> groups = voucherOrders.stream()
+                .collect(Collectors.groupingBy(VoucherOrder::getVoucherId));
+        for (Map.Entry<Long, List<VoucherOrder>> entry : groups.entrySet()) {
+            Long voucherId = entry.getKey();
+            List<VoucherOrder> orders = entry.getValue();
+            // 5.一人一单，由(user_id, voucher_id)唯一索引保证，重复的行被忽略
+            // insert ignore into tb_voucher_order (...) values (...),(...)
+            int inserted = getBaseMapper().insertIgnoreBatch(orders);
+            List<VoucherOrder> saved = orders;
+            if (inserted < orders.size()) {
+                // 有被忽略的行，订单id已存在的是重复投递的消息，订单已经落库；其余是同一用户的重复下单
+                Set<Long> existing = query().select("id")
+                        .in("id", orders.stream().map(VoucherOrder::getId).collect(Collectors.toList()))
+                        .list().stream().map(VoucherOrder::getId).collect(Collectors.toSet());
+                saved = new ArrayList<>(existing.size());
+                for (VoucherOrder voucherOrder : orders) {
+                    if (existing.contains(voucherOrder.getId())) {
+                        saved.add(voucherOrder);
+                    } else {
+                        log.error("请勿重复购买！userId=" + voucherOrder.getUserId());
+                        batchResult.getDuplicates().add(voucherOrder);
+                    }
+                }
+            }
+            if (inserted == 0) {
+                batchResult.getSaved().addAll(saved);
+                continue;
+            }
+            //5，按本次实际插入的行数扣减库存 set stock = stock - k where voucher_id = ? and stock >= k
+            boolean success = seckillVoucherService.update()
+                    .setSql("stock = stock - " + inserted)
+                    .eq("voucher_id", voucherId).ge("stock", inserted)
+                    .update();
+            if (success) {
+                batchResult.getSaved().addAll(saved);
+                continue;
+            }
+            if (inserted != saved.size()) {
+                //库存不足且本组混有重复投递的订单，无法区分哪些是本次插入的，整批回滚后由恢复任务逐条重试
+                throw new RuntimeException("库存不足！voucherId=" + voucherId);
+            }
+            //库存不足，只保留库存允许的订单，其余删除 select stock from tb_seckill_voucher where voucher_id = ? for update
+            SeckillVoucher voucher = seckillVoucherService.query().eq("voucher_id", voucherId).last("FOR UPDATE").one();
+            int available = voucher == null ? 0 : Math.max(0, Math.min(voucher.getStock(), saved.size()));
+            List<VoucherOrder> soldOut = saved.subList(available, saved.size());
+            log.error("库存不足！voucherId=" + voucherId + "，" + soldOut.size() + "个订单下单失败");
+            removeByIds(soldOut.stream().map(VoucherOrder::getId).collect(Collectors.toList()));
+            if (available > 0) {
+                seckillVoucherService.update()
+                        .setSql("stock = stock - " + available)
+                        .eq("voucher_id", voucherId)
+                        .update();
+            }
+            batchResult.getSaved().addAll(saved.subList(0, available));
+            batchResult.getSoldOut().addAll(soldOut);
+        }
+        return batchResult;
+    }
 
+    @Override
+    public Result queryOrderStatus(Long orderId) {
+        //先查本地缓存，再查redis，不访问数据库
+        OrderStatusDTO status = orderStatusStore.get(orderId);
+        Long userId = UserHolder.getUser().getId();
+        if (status.getUserId() != null && !status.getUserId().equals(userId)) {
+            //不是自己的订单
+            return Result.fail("订单不存在");
+        }
+        return Result.ok(status);
     }
 }
@@ -7,9 +7,14 @@ import com.hmdp.mapper.VoucherMapper;
 import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.SeckillStockShards;
+import com.hmdp.utils.SeckillWindowRegistry;
+import com.hmdp.utils.SoldOutRegistry;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import javax.annotation.Resource;
 import java.util.List;
@@ -33,6 +38,12 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private SoldOutRegistry soldOutRegistry;
+
+    @Resource
+    private SeckillStockShards seckillStockShards;
+
     @Override
     public Result queryVoucherOfShop(Long shopId) {
         // 查询优惠券信息
@@ -53,7 +64,41 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         seckillVoucher.setBeginTime(voucher.getBeginTime());
         seckillVoucher.setEndTime(voucher.getEndTime());
         seckillVoucherService.save(seckillVoucher);
-        //保存秒杀库存到redis
-        stringRedisTemplate.opsForValue().set(SECKILL_STOCK_KEY + voucher.getId(), voucher.getStock().toString());
+        int shards = voucher.getShards() == null ? 1 : voucher.getShards();
+        // 事务提交后再写redis，回滚时redis不会留下不存在的秒杀券，其它节点收到通知时也能从数据库查到
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                //保存秒杀库存到redis，指定了分片数时拆分到多个分片
+                seckillStockShards.initStock(voucher.getId(), voucher.getStock(), shards,
+                        SeckillWindowRegistry.toEpochMilli(voucher.getBeginTime()),
+                        SeckillWindowRegistry.toEpochMilli(voucher.getEndTime()));
+                //通知所有节点刷新该优惠券的本地状态
+                soldOutRegistry.publishRestock(voucher.getId());
+            }
+        });
+    }
+
+    @Override
+    @Transactional
+    public void addSeckillStock(Long voucherId, Integer count) {
+        // 增加数据库库存
+        boolean success = seckillVoucherService.update()
+                .setSql("stock = stock + " + count)
+                .eq("voucher_id", voucherId)
+                .update();
+        if (!success) {
+            throw new RuntimeException("秒杀券不存在！");
+        }
+        // 事务提交后再增加redis库存，提交失败时redis不会多出数据库没有的库存
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                // 增加redis库存
+                seckillStockShards.addStock(voucherId, count);
+                // 通知所有节点清除售罄标记
+                soldOutRegistry.publishRestock(voucherId);
+            }
+        });
     }
 }
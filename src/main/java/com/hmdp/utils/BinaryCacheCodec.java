@@ -0,0 +1,485 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 按类的字段结构编码的二进制格式，只支持字段都是基本类型、包装类型、String、LocalDateTime、LocalDate的实体类
+ * <pre>
+ * 0xFE | 格式版本(1) | 类型(值/列表/逻辑过期) | 字段结构指纹(4) | 数据
+ * 数据 = 空值位图 | 按字段名排序的非空字段
+ * </pre>
+ * 整数使用zigzag变长编码，字符串为 变长长度+UTF-8。字段结构指纹由字段名和字段类型计算，
+ * 类的字段修改后旧的缓存解码为null，按未命中处理
+ */
+@Slf4j
+@Component
+public class BinaryCacheCodec implements CacheCodec {
+
+    public static final String NAME = "binary";
+
+    //不是合法的UTF-8开头字节，不会与json混淆
+    private static final byte MAGIC = (byte) 0xFE;
+    private static final byte FORMAT_VERSION = 1;
+    private static final int HEADER_LENGTH = 7;
+
+    private static final byte KIND_VALUE = 0;
+    private static final byte KIND_LIST = 1;
+    private static final byte KIND_LOGIC_EXPIRE = 2;
+
+    //字段类型
+    private static final byte LONG = 1;
+    private static final byte INT = 2;
+    private static final byte SHORT = 3;
+    private static final byte BYTE = 4;
+    private static final byte BOOLEAN = 5;
+    private static final byte DOUBLE = 6;
+    private static final byte FLOAT = 7;
+    private static final byte STRING = 8;
+    private static final byte DATE_TIME = 9;
+    private static final byte DATE = 10;
+
+    //类 -> 字段结构，不支持的类为empty
+    private final Map<Class<?>, Optional<Schema>> schemas = new ConcurrentHashMap<>();
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public boolean supports(Class<?> type) {
+        return schema(type) != null;
+    }
+
+    @Override
+    public boolean accepts(byte[] bytes) {
+        return bytes.length >= HEADER_LENGTH && bytes[0] == MAGIC;
+    }
+
+    @Override
+    public byte[] encode(Object value) {
+        Schema schema = requireSchema(value.getClass());
+        Output out = header(schema, KIND_VALUE, 64);
+        schema.write(value, out);
+        return out.toByteArray();
+    }
+
+    @Override
+    public <T> T decode(byte[] bytes, Class<T> type) {
+        Schema schema = schema(type);
+        Input in = open(bytes, schema, KIND_VALUE);
+        if (in == null) {
+            return null;
+        }
+        try {
+            return type.cast(schema.read(in));
+        } catch (RuntimeException e) {
+            log.warn("缓存数据解码失败，type=" + type.getName(), e);
+            return null;
+        }
+    }
+
+    @Override
+    public <T> byte[] encodeList(List<T> values, Class<T> type) {
+        Schema schema = requireSchema(type);
+        Output out = header(schema, KIND_LIST, 16 + values.size() * 48);
+        out.writeVarLong(values.size());
+        for (T value : values) {
+            schema.write(value, out);
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public <T> List<T> decodeList(byte[] bytes, Class<T> type) {
+        Schema schema = schema(type);
+        Input in = open(bytes, schema, KIND_LIST);
+        if (in == null) {
+            return null;
+        }
+        try {
+            int size = (int) in.readVarLong();
+            List<T> values = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                values.add(type.cast(schema.read(in)));
+            }
+            return values;
+        } catch (RuntimeException e) {
+            log.warn("缓存数据解码失败，type=" + type.getName(), e);
+            return null;
+        }
+    }
+
+    @Override
+    public byte[] encodeLogicExpire(Object value, LocalDateTime expireTime) {
+        Schema schema = requireSchema(value.getClass());
+        Output out = header(schema, KIND_LOGIC_EXPIRE, 80);
+        writeDateTime(out, expireTime);
+        schema.write(value, out);
+        return out.toByteArray();
+    }
+
+    @Override
+    public <T> RedisData decodeLogicExpire(byte[] bytes, Class<T> type) {
+        Schema schema = schema(type);
+        Input in = open(bytes, schema, KIND_LOGIC_EXPIRE);
+        if (in == null) {
+            return null;
+        }
+        try {
+            RedisData redisData = new RedisData();
+            redisData.setExpireTime(readDateTime(in));
+            redisData.setData(schema.read(in));
+            return redisData;
+        } catch (RuntimeException e) {
+            log.warn("缓存数据解码失败，type=" + type.getName(), e);
+            return null;
+        }
+    }
+
+    private Schema schema(Class<?> type) {
+        return schemas.computeIfAbsent(type, t -> Optional.ofNullable(Schema.of(t))).orElse(null);
+    }
+
+    private Schema requireSchema(Class<?> type) {
+        Schema schema = schema(type);
+        if (schema == null) {
+            throw new IllegalArgumentException("不支持二进制编码的类型：" + type.getName());
+        }
+        return schema;
+    }
+
+    private static Output header(Schema schema, byte kind, int size) {
+        Output out = new Output(HEADER_LENGTH + size);
+        out.writeByte(MAGIC);
+        out.writeByte(FORMAT_VERSION);
+        out.writeByte(kind);
+        out.writeInt(schema.fingerprint);
+        return out;
+    }
+
+    //校验数据头，不匹配时返回null
+    private static Input open(byte[] bytes, Schema schema, byte kind) {
+        if (schema == null || bytes.length < HEADER_LENGTH || bytes[0] != MAGIC
+                || bytes[1] != FORMAT_VERSION || bytes[2] != kind) {
+            return null;
+        }
+        Input in = new Input(bytes, 3);
+        if (in.readInt() != schema.fingerprint) {
+            return null;
+        }
+        return in;
+    }
+
+    private static void writeDateTime(Output out, LocalDateTime time) {
+        out.writeVarLong(time.toEpochSecond(ZoneOffset.UTC));
+        out.writeVarLong(time.getNano());
+    }
+
+    private static LocalDateTime readDateTime(Input in) {
+        long seconds = in.readVarLong();
+        int nanos = (int) in.readVarLong();
+        return LocalDateTime.ofEpochSecond(seconds, nanos, ZoneOffset.UTC);
+    }
+
+    private static byte kindOf(Class<?> type) {
+        if (type == Long.class || type == long.class) {
+            return LONG;
+        } else if (type == Integer.class || type == int.class) {
+            return INT;
+        } else if (type == Short.class || type == short.class) {
+            return SHORT;
+        } else if (type == Byte.class || type == byte.class) {
+            return BYTE;
+        } else if (type == Boolean.class || type == boolean.class) {
+            return BOOLEAN;
+        } else if (type == Double.class || type == double.class) {
+            return DOUBLE;
+        } else if (type == Float.class || type == float.class) {
+            return FLOAT;
+        } else if (type == String.class) {
+            return STRING;
+        } else if (type == LocalDateTime.class) {
+            return DATE_TIME;
+        } else if (type == LocalDate.class) {
+            return DATE;
+        }
+        return 0;
+    }
+
+    private static class Schema {
+        private final Constructor<?> constructor;
+        private final Field[] fields;
+        private final byte[] kinds;
+        private final int fingerprint;
+
+        private Schema(Constructor<?> constructor, Field[] fields, byte[] kinds, int fingerprint) {
+            this.constructor = constructor;
+            this.fields = fields;
+            this.kinds = kinds;
+            this.fingerprint = fingerprint;
+        }
+
+        //类及父类的所有实例字段都是支持的类型，并且有无参构造方法时返回字段结构，否则返回null
+        static Schema of(Class<?> type) {
+            Constructor<?> constructor;
+            try {
+                constructor = type.getDeclaredConstructor();
+                constructor.setAccessible(true);
+            } catch (NoSuchMethodException | RuntimeException e) {
+                return null;
+            }
+            List<Field> fields = new ArrayList<>();
+            for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    int modifiers = field.getModifiers();
+                    if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers)) {
+                        continue;
+                    }
+                    if (kindOf(field.getType()) == 0) {
+                        return null;
+                    }
+                    fields.add(field);
+                }
+            }
+            if (fields.isEmpty()) {
+                return null;
+            }
+            fields.sort(Comparator.comparing(Field::getName));
+            byte[] kinds = new byte[fields.size()];
+            StringBuilder signature = new StringBuilder(type.getName());
+            for (int i = 0; i < fields.size(); i++) {
+                Field field = fields.get(i);
+                field.setAccessible(true);
+                kinds[i] = kindOf(field.getType());
+                signature.append(';').append(field.getName()).append(':').append(field.getType().getName());
+            }
+            return new Schema(constructor, fields.toArray(new Field[0]), kinds, Arrays.hashCode(
+                    signature.toString().getBytes(StandardCharsets.UTF_8)));
+        }
+
+        void write(Object value, Output out) {
+            try {
+                //空值位图
+                int bitmapStart = out.reserve((fields.length + 7) >>> 3);
+                for (int i = 0; i < fields.length; i++) {
+                    Object v = fields[i].get(value);
+                    if (v == null) {
+                        out.setBit(bitmapStart, i);
+                        continue;
+                    }
+                    switch (kinds[i]) {
+                        case LONG:
+                        case INT:
+                        case SHORT:
+                        case BYTE:
+                            out.writeVarLong(((Number) v).longValue());
+                            break;
+                        case BOOLEAN:
+                            out.writeByte((Boolean) v ? 1 : 0);
+                            break;
+                        case DOUBLE:
+                            out.writeLong(Double.doubleToRawLongBits((Double) v));
+                            break;
+                        case FLOAT:
+                            out.writeInt(Float.floatToRawIntBits((Float) v));
+                            break;
+                        case STRING:
+                            out.writeString((String) v);
+                            break;
+                        case DATE_TIME:
+                            writeDateTime(out, (LocalDateTime) v);
+                            break;
+                        default:
+                            out.writeVarLong(((LocalDate) v).toEpochDay());
+                    }
+                }
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        Object read(Input in) {
+            try {
+                Object value = constructor.newInstance();
+                int bitmapStart = in.skip((fields.length + 7) >>> 3);
+                for (int i = 0; i < fields.length; i++) {
+                    if (in.isBitSet(bitmapStart, i)) {
+                        continue;
+                    }
+                    Field field = fields[i];
+                    switch (kinds[i]) {
+                        case LONG:
+                            field.set(value, in.readVarLong());
+                            break;
+                        case INT:
+                            field.set(value, (int) in.readVarLong());
+                            break;
+                        case SHORT:
+                            field.set(value, (short) in.readVarLong());
+                            break;
+                        case BYTE:
+                            field.set(value, (byte) in.readVarLong());
+                            break;
+                        case BOOLEAN:
+                            field.set(value, in.readByte() != 0);
+                            break;
+                        case DOUBLE:
+                            field.set(value, Double.longBitsToDouble(in.readLong()));
+                            break;
+                        case FLOAT:
+                            field.set(value, Float.intBitsToFloat(in.readInt()));
+                            break;
+                        case STRING:
+                            field.set(value, in.readString());
+                            break;
+                        case DATE_TIME:
+                            field.set(value, readDateTime(in));
+                            break;
+                        default:
+                            field.set(value, LocalDate.ofEpochDay(in.readVarLong()));
+                    }
+                }
+                return value;
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private static class Output {
+        private byte[] buf;
+        private int pos;
+
+        Output(int size) {
+            buf = new byte[size];
+        }
+
+        private void ensure(int n) {
+            if (pos + n > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + n));
+            }
+        }
+
+        void writeByte(int b) {
+            ensure(1);
+            buf[pos++] = (byte) b;
+        }
+
+        void writeInt(int v) {
+            ensure(4);
+            buf[pos++] = (byte) (v >>> 24);
+            buf[pos++] = (byte) (v >>> 16);
+            buf[pos++] = (byte) (v >>> 8);
+            buf[pos++] = (byte) v;
+        }
+
+        void writeLong(long v) {
+            writeInt((int) (v >>> 32));
+            writeInt((int) v);
+        }
+
+        //zigzag + 每字节7位
+        void writeVarLong(long v) {
+            ensure(10);
+            long z = (v << 1) ^ (v >> 63);
+            while ((z & ~0x7FL) != 0) {
+                buf[pos++] = (byte) ((z & 0x7F) | 0x80);
+                z >>>= 7;
+            }
+            buf[pos++] = (byte) z;
+        }
+
+        void writeString(String s) {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(bytes.length);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buf, pos, bytes.length);
+            pos += bytes.length;
+        }
+
+        //预留n个字节，返回起始位置
+        int reserve(int n) {
+            ensure(n);
+            int start = pos;
+            Arrays.fill(buf, start, start + n, (byte) 0);
+            pos += n;
+            return start;
+        }
+
+        void setBit(int start, int i) {
+            buf[start + (i >>> 3)] |= (byte) (1 << (i & 7));
+        }
+
+        byte[] toByteArray() {
+            return pos == buf.length ? buf : Arrays.copyOf(buf, pos);
+        }
+    }
+
+    private static class Input {
+        private final byte[] buf;
+        private int pos;
+
+        Input(byte[] buf, int pos) {
+            this.buf = buf;
+            this.pos = pos;
+        }
+
+        byte readByte() {
+            return buf[pos++];
+        }
+
+        int readInt() {
+            return (buf[pos++] & 0xFF) << 24 | (buf[pos++] & 0xFF) << 16 | (buf[pos++] & 0xFF) << 8 | (buf[pos++] & 0xFF);
+        }
+
+        long readLong() {
+            return (long) readInt() << 32 | (readInt() & 0xFFFFFFFFL);
+        }
+
+        long readVarLong() {
+            long z = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = buf[pos++];
+                z |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    break;
+                }
+            }
+            return (z >>> 1) ^ -(z & 1);
+        }
+
+        String readString() {
+            int length = (int) readVarLong();
+            String s = new String(buf, pos, length, StandardCharsets.UTF_8);
+            pos += length;
+            return s;
+        }
+
+        int skip(int n) {
+            int start = pos;
+            pos += n;
+            return start;
+        }
+
+        boolean isBitSet(int start, int i) {
+            return (buf[start + (i >>> 3)] & (1 << (i & 7))) != 0;
+        }
+    }
+}
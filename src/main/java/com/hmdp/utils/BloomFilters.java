@@ -0,0 +1,446 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.thread.ThreadFactoryBuilder;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.hmdp.mapper.BlogMapper;
+import com.hmdp.mapper.ShopMapper;
+import com.hmdp.mapper.UserMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongConsumer;
+
+import static com.hmdp.constant.RedisConstants.*;
+
+/**
+ * 店铺、用户、笔记id的布隆过滤器，用于在访问redis和数据库之前拦截不存在的id，防止缓存穿透
+ * <p>
+ * 每个过滤器在redis中保存一份位图 bloom:{name}，各节点在本地保存一份副本，判断只读本地副本。
+ * 新增数据时同时写redis位图并通过 bloom:sync 频道通知其它节点；
+ * 位图不存在时由一个节点从数据库按id分批扫描全表建立，之后定期重建以清除已删除的id，重建完成后其它节点重新加载。
+ * 本地副本还没有加载完成时所有id都判断为可能存在
+ */
+@Slf4j
+@Component
+public class BloomFilters implements MessageListener {
+
+    public static final String SHOP = "shop";
+    public static final String USER = "user";
+    public static final String BLOG = "blog";
+
+    //扫描数据库时每批查询的id数量
+    private static final int SCAN_BATCH = 1000;
+
+    //redis中还没有位图并且其它节点正在建立时，隔多久重新加载
+    private static final long RELOAD_RETRY_MILLIS = 10000;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Resource
+    private ShopMapper shopMapper;
+
+    @Resource
+    private UserMapper userMapper;
+
+    @Resource
+    private BlogMapper blogMapper;
+
+    @Value("${hmdp.bloom.enabled:true}")
+    private boolean enabled;
+
+    /**
+     * 每个过滤器预计的元素数量，位图大小由它和误判率决定，修改后会重建位图
+     */
+    @Value("${hmdp.bloom.expected-insertions:1000000}")
+    private long expectedInsertions;
+
+    @Value("${hmdp.bloom.fpp:0.01}")
+    private double fpp;
+
+    /**
+     * 重建间隔，所有节点中同一时间只有一个节点重建
+     */
+    @Value("${hmdp.bloom.rebuild-interval-millis:86400000}")
+    private long rebuildIntervalMillis;
+
+    //过滤器名称 -> 过滤器
+    private final Map<String, Filter> filters = new HashMap<>();
+
+    //缓存key前缀 -> 过滤器名称
+    private final Map<String, String> cachePrefixes = new HashMap<>();
+
+    //建立和重建位图的线程
+    private final ScheduledExecutorService rebuildExecutor = Executors.newSingleThreadScheduledExecutor(
+            ThreadFactoryBuilder.create().setNamePrefix("bloom-rebuild-").setDaemon(true).build());
+
+    @PostConstruct
+    private void init() {
+        if (!enabled) {
+            return;
+        }
+        long bits = optimalBits(expectedInsertions, fpp);
+        int hashes = optimalHashes(expectedInsertions, bits);
+        filters.put(SHOP, new Filter(SHOP, shopMapper, bits, hashes));
+        filters.put(USER, new Filter(USER, userMapper, bits, hashes));
+        filters.put(BLOG, new Filter(BLOG, blogMapper, bits, hashes));
+        cachePrefixes.put(CACHE_SHOP_KEY, SHOP);
+        cachePrefixes.put(CACHE_USER_KEY, USER);
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(BLOOM_SYNC_CHANNEL));
+        //启动时在后台加载，不阻塞启动
+        for (Filter filter : filters.values()) {
+            rebuildExecutor.execute(() -> load(filter));
+        }
+    }
+
+    @PreDestroy
+    private void destroy() {
+        rebuildExecutor.shutdownNow();
+    }
+
+    /**
+     * 判断id是否可能存在
+     * @param name 过滤器名称
+     * @param id 数据id
+     * @return false:一定不存在，true:可能存在
+     */
+    public boolean mightContain(String name, Object id) {
+        Filter filter = filters.get(name);
+        if (filter == null || filter.bits == null || !(id instanceof Long)) {
+            //未开启、未加载完成，或者不是数字id
+            return true;
+        }
+        return filter.mightContain((Long) id);
+    }
+
+    /**
+     * 按缓存key前缀判断id是否可能存在，前缀没有对应的过滤器时返回true
+     * @param keyPrefix 缓存key前缀，例如 cache:shop:
+     * @param id 数据id
+     */
+    public boolean mightContainCached(String keyPrefix, Object id) {
+        String name = cachePrefixes.get(keyPrefix);
+        return name == null || mightContain(name, id);
+    }
+
+    /**
+     * 新增数据后登记id，写入redis位图并通知所有节点
+     * @param name 过滤器名称
+     * @param id 数据id
+     */
+    public void add(String name, Long id) {
+        Filter filter = filters.get(name);
+        if (filter == null || id == null) {
+            return;
+        }
+        String key = BLOOM_KEY + name;
+        long[] offsets = filter.offsets(id);
+        try {
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                for (long offset : offsets) {
+                    conn.setBit(key, offset, true);
+                }
+                conn.publish(BLOOM_SYNC_CHANNEL, "add:" + name + ":" + id);
+                return null;
+            });
+        } catch (Exception e) {
+            //下次重建时补上
+            log.error("布隆过滤器登记id失败，name=" + name + "，id=" + id, e);
+        }
+        filter.set(offsets);
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        //add:{name}:{id} 或 reload:{name}
+        String[] parts = new String(message.getBody(), StandardCharsets.UTF_8).split(":");
+        Filter filter = filters.get(parts[1]);
+        if (filter == null) {
+            return;
+        }
+        if ("add".equals(parts[0])) {
+            filter.set(filter.offsets(Long.parseLong(parts[2])));
+        } else if ("reload".equals(parts[0])) {
+            rebuildExecutor.execute(() -> load(filter));
+        }
+    }
+
+    /**
+     * 定期重建，清除已经删除的id
+     */
+    @Scheduled(initialDelayString = "${hmdp.bloom.rebuild-interval-millis:86400000}",
+            fixedDelayString = "${hmdp.bloom.rebuild-interval-millis:86400000}")
+    public void rebuildAll() {
+        for (Filter filter : filters.values()) {
+            rebuildExecutor.execute(() -> rebuild(filter));
+        }
+    }
+
+    //从redis加载本地副本，redis中没有或大小不一致时重建
+    private void load(Filter filter) {
+        //读取位图期间收到的新增id先记下，替换本地副本后补上，否则会丢失
+        filter.beginLoad();
+        try {
+            String key = BLOOM_KEY + filter.name;
+            byte[] bitmap = stringRedisTemplate.execute((RedisCallback<byte[]>) connection ->
+                    connection.get(key.getBytes(StandardCharsets.UTF_8)));
+            if (bitmap == null || bitmap.length != filter.bytes()) {
+                filter.endLoad(null);
+                //由本节点重建时，完成后收到reload消息再加载；其它节点正在重建或重建失败时稍后重试
+                if (!rebuild(filter)) {
+                    retryLoad(filter);
+                }
+                return;
+            }
+            filter.endLoad(fromRedisBitmap(bitmap, filter.bitCount));
+            log.info("加载布隆过滤器完成，name=" + filter.name);
+        } catch (Exception e) {
+            filter.endLoad(null);
+            log.error("加载布隆过滤器失败，name=" + filter.name, e);
+            retryLoad(filter);
+        }
+    }
+
+    private void retryLoad(Filter filter) {
+        if (filter.bits != null) {
+            //已经有可用的本地副本，等下一次reload
+            return;
+        }
+        try {
+            rebuildExecutor.schedule(() -> load(filter), RELOAD_RETRY_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            //正在关闭
+        }
+    }
+
+    /**
+     * 扫描数据库建立新的位图，替换redis中的位图，通知所有节点重新加载
+     * @return 是否由本节点重建成功
+     */
+    private boolean rebuild(Filter filter) {
+        String key = BLOOM_KEY + filter.name;
+        //同一个重建间隔内只有一个节点重建
+        Boolean first = stringRedisTemplate.opsForValue()
+                .setIfAbsent(BLOOM_REBUILT_KEY + filter.name, "1", rebuildIntervalMillis, TimeUnit.MILLISECONDS);
+        if (!Boolean.TRUE.equals(first)) {
+            return false;
+        }
+        try {
+            AtomicLongArray bits = new AtomicLongArray(filter.words());
+            long lastId = scan(filter, 0, id -> {
+                for (long offset : filter.offsets(id)) {
+                    setBit(bits, offset);
+                }
+            });
+            //先写临时key再改名，替换期间读到的总是完整的位图
+            String tmpKey = key + ":tmp";
+            byte[] bitmap = toRedisBitmap(bits, filter.bytes());
+            stringRedisTemplate.execute((RedisCallback<Object>) connection -> {
+                connection.set(tmpKey.getBytes(StandardCharsets.UTF_8), bitmap);
+                connection.rename(tmpKey.getBytes(StandardCharsets.UTF_8), key.getBytes(StandardCharsets.UTF_8));
+                return null;
+            });
+            //扫描期间新增的id登记在了旧位图中，补充登记到新位图
+            scan(filter, lastId, id -> add(filter.name, id));
+            stringRedisTemplate.convertAndSend(BLOOM_SYNC_CHANNEL, "reload:" + filter.name);
+            log.info("重建布隆过滤器完成，name=" + filter.name);
+            return true;
+        } catch (Exception e) {
+            //允许其它节点或下一次重试
+            stringRedisTemplate.delete(BLOOM_REBUILT_KEY + filter.name);
+            log.error("重建布隆过滤器失败，name=" + filter.name, e);
+            return false;
+        }
+    }
+
+    //按id从小到大分批扫描 afterId 之后的所有id，返回扫描到的最大id
+    private long scan(Filter filter, long afterId, LongConsumer consumer) {
+        long lastId = afterId;
+        while (true) {
+            List<Object> ids = selectIds(filter.mapper, lastId);
+            for (Object o : ids) {
+                long id = ((Number) o).longValue();
+                consumer.accept(id);
+                lastId = Math.max(lastId, id);
+            }
+            if (ids.size() < SCAN_BATCH) {
+                return lastId;
+            }
+        }
+    }
+
+    private static <T> List<Object> selectIds(BaseMapper<T> mapper, long afterId) {
+        return mapper.selectObjs(new QueryWrapper<T>()
+                .select("id")
+                .gt("id", afterId)
+                .orderByAsc("id")
+                .last("LIMIT " + SCAN_BATCH));
+    }
+
+    // m = -n*ln(p) / (ln2)^2，按64位对齐
+    private static long optimalBits(long n, double p) {
+        long m = (long) Math.ceil(-n * Math.log(p) / (Math.log(2) * Math.log(2)));
+        return Math.max(64, (m + 63) / 64 * 64);
+    }
+
+    // k = m/n * ln2
+    private static int optimalHashes(long n, long m) {
+        return Math.max(1, (int) Math.round((double) m / n * Math.log(2)));
+    }
+
+    private static void setBit(AtomicLongArray bits, long offset) {
+        int word = (int) (offset >>> 6);
+        long mask = 1L << (offset & 63);
+        long old;
+        do {
+            old = bits.get(word);
+            if ((old & mask) != 0) {
+                return;
+            }
+        } while (!bits.compareAndSet(word, old, old | mask));
+    }
+
+    private static boolean isSet(AtomicLongArray bits, long[] offsets) {
+        for (long offset : offsets) {
+            if ((bits.get((int) (offset >>> 6)) & (1L << (offset & 63))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //redis位图中offset 0是第一个字节的最高位
+    private static AtomicLongArray fromRedisBitmap(byte[] bitmap, long bitCount) {
+        AtomicLongArray bits = new AtomicLongArray((int) (bitCount >>> 6));
+        for (int i = 0; i < bitmap.length; i++) {
+            int b = bitmap[i] & 0xff;
+            for (int j = 0; j < 8 && b != 0; j++) {
+                if ((b & (0x80 >>> j)) != 0) {
+                    setBit(bits, (long) i * 8 + j);
+                }
+            }
+        }
+        return bits;
+    }
+
+    private static byte[] toRedisBitmap(AtomicLongArray bits, int bytes) {
+        byte[] bitmap = new byte[bytes];
+        for (int word = 0; word < bits.length(); word++) {
+            long w = bits.get(word);
+            while (w != 0) {
+                int bit = Long.numberOfTrailingZeros(w);
+                long offset = (long) word * 64 + bit;
+                bitmap[(int) (offset >>> 3)] |= (byte) (0x80 >>> (offset & 7));
+                w &= w - 1;
+            }
+        }
+        return bitmap;
+    }
+
+    private static class Filter {
+        private final String name;
+        private final BaseMapper<?> mapper;
+        private final long bitCount;
+        private final int hashes;
+        //本地副本，加载完成前为null
+        private volatile AtomicLongArray bits;
+        //正在从redis加载时收到的新增id的位置，加载完成后补充到新的副本
+        private List<long[]> loadingAdds;
+
+        Filter(String name, BaseMapper<?> mapper, long bitCount, int hashes) {
+            this.name = name;
+            this.mapper = mapper;
+            this.bitCount = bitCount;
+            this.hashes = hashes;
+        }
+
+        int words() {
+            return (int) (bitCount >>> 6);
+        }
+
+        int bytes() {
+            return (int) (bitCount >>> 3);
+        }
+
+        //双重哈希：第i个位置 = h1 + i*h2
+        long[] offsets(long id) {
+            long h1 = mix(id);
+            long h2 = mix(h1) | 1;
+            long[] offsets = new long[hashes];
+            for (int i = 0; i < hashes; i++) {
+                offsets[i] = Math.floorMod(h1 + i * h2, bitCount);
+            }
+            return offsets;
+        }
+
+        boolean mightContain(long id) {
+            return isSet(bits, offsets(id));
+        }
+
+        synchronized void set(long[] offsets) {
+            if (loadingAdds != null) {
+                loadingAdds.add(offsets);
+            }
+            AtomicLongArray current = bits;
+            if (current != null) {
+                for (long offset : offsets) {
+                    setBit(current, offset);
+                }
+            }
+        }
+
+        synchronized void beginLoad() {
+            loadingAdds = new ArrayList<>();
+        }
+
+        /**
+         * 结束加载，补上加载期间新增的id后替换本地副本
+         * @param loaded 加载到的副本，null表示没有加载成功，保留原副本
+         */
+        synchronized void endLoad(AtomicLongArray loaded) {
+            if (loaded != null) {
+                for (long[] offsets : loadingAdds) {
+                    for (long offset : offsets) {
+                        setBit(loaded, offset);
+                    }
+                }
+                bits = loaded;
+            }
+            loadingAdds = null;
+        }
+
+        //SplitMix64
+        private static long mix(long z) {
+            z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+            z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+            return z ^ (z >>> 31);
+        }
+    }
+}
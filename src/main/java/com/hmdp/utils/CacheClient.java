@@ -1,23 +1,33 @@
 package com.hmdp.utils;
 
 import cn.hutool.core.util.BooleanUtil;
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
-import com.hmdp.entity.Shop;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
 import static com.hmdp.constant.RedisConstants.*;
-import static com.hmdp.constant.RedisConstants.CACHE_SHOP_TTL;
 
 @Component
 @Slf4j
@@ -25,10 +35,47 @@ public class CacheClient {
 
     private final StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private NearCache nearCache;
+
+    @Resource
+    private BloomFilters bloomFilters;
+
+    @Resource
+    private List<CacheCodec> codecs;
+
+    /**
+     * 写入缓存使用的编码，json或binary；binary不支持的类型仍使用json
+     */
+    @Value("${hmdp.cache.codec:binary}")
+    private String codecName;
+
+    private CacheCodec writeCodec;
+
+    private CacheCodec jsonCodec;
+
+    //空值，防止缓存穿透
+    private static final byte[] EMPTY = new byte[0];
+
     public CacheClient(StringRedisTemplate stringRedisTemplate) {
         this.stringRedisTemplate = stringRedisTemplate;
     }
 
+    @PostConstruct
+    private void init() {
+        for (CacheCodec codec : codecs) {
+            if (codec.name().equals(codecName)) {
+                writeCodec = codec;
+            }
+            if (codec.name().equals(JsonCacheCodec.NAME)) {
+                jsonCodec = codec;
+            }
+        }
+        if (writeCodec == null) {
+            throw new IllegalStateException("未知的缓存编码：" + codecName);
+        }
+    }
+
     /**
      * 存入所有类型数据到redis
      * @param key 键
@@ -37,7 +84,18 @@ public class CacheClient {
      * @param unit 时间单位
      */
     public void set(String key, Object value, Long time, TimeUnit unit){
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(value), time, unit);
+        setBytes(key, encode(value), unit.toMillis(time));
+        //通知所有节点删除本地缓存
+        nearCache.invalidate(key);
+    }
+
+    /**
+     * 删除redis缓存，并通知所有节点删除本地缓存
+     * @param key 键
+     */
+    public void delete(String key){
+        stringRedisTemplate.delete(key);
+        nearCache.invalidate(key);
     }
 
     /**
@@ -49,79 +107,245 @@ public class CacheClient {
      */
     public void setWithLogicExpire(String key,Object value,Long time,TimeUnit unit){
         //设置逻辑过期
-        RedisData redisData = new RedisData();
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(unit.toSeconds(time)));
-        redisData.setData(value);
+        LocalDateTime expireTime = LocalDateTime.now().plusSeconds(unit.toSeconds(time));
         //存入redis
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(redisData));
+        CacheCodec codec = value == null ? jsonCodec : codecFor(value.getClass());
+        setBytes(key, codec.encodeLogicExpire(value, expireTime), 0);
+        nearCache.invalidate(key);
     }
 
-    //使用set null解决缓存穿透
+    //使用布隆过滤器和set null解决缓存穿透，redis之前先查本节点的一级缓存
     public <R,ID> R queryWithPassThrough(String keyPrefix, ID id, Class<R> type, Function<ID,R> dbFallback,Long time,TimeUnit unit){
+        //布隆过滤器判断一定不存在的id，不访问redis和数据库
+        if (!bloomFilters.mightContainCached(keyPrefix, id)){
+            return null;
+        }
         String key = keyPrefix + id;
+        //从本地缓存中查询
+        Object cached = nearCache.get(key);
+        if (NearCache.isNull(cached)){
+            return null;
+        }
+        if (type.isInstance(cached)){
+            return type.cast(cached);
+        }
+        long version = nearCache.version();
         //从redis中查询商户缓存
-        String json = stringRedisTemplate.opsForValue().get(key);
+        byte[] bytes = getBytes(key);
 
-        if (StrUtil.isNotBlank(json)){
-            //查询到，直接返回
-            return JSONUtil.toBean(json,type);
-        }
-        //判断命中的是否是空值
-        if (json!=null){
-            //返回一个空值
+        if (bytes != null && bytes.length > 0){
+            //查询到，存入本地缓存后返回；无法解码时（例如类的字段已修改）按未命中处理
+            R r = decode(bytes,type);
+            if (r != null){
+                nearCache.put(key,r,version);
+                return r;
+            }
+        } else if (bytes != null){
+            //命中空值，返回一个空值
+            nearCache.put(key,null,version);
             return null;
         }
 
-        //未查询到，查询数据库
-        R r = dbFallback.apply(id);
+        //未查询到，查询数据库；本节点同一个key只有一个线程查询并回填，其它线程等待它的结果
+        return loadOnce(key, () -> {
+            R r = dbFallback.apply(id);
 
-        //查询不到，返回错误信息
-        if (r == null){
-            //存入空值，防止缓存穿透
-            stringRedisTemplate.opsForValue().set(key,"",CACHE_NULL_TTL, TimeUnit.MINUTES);
-            return null;
+            //查询不到，返回错误信息
+            if (r == null){
+                //存入空值，防止缓存穿透
+                setBytes(key, EMPTY, TimeUnit.MINUTES.toMillis(CACHE_NULL_TTL));
+                nearCache.put(key,null,version);
+                return null;
+            }
+            //查询到，存入redis；只是回填缓存，不需要通知其它节点
+            setBytes(key, encode(r), unit.toMillis(time));
+            nearCache.put(key,r,version);
+            return r;
+        });
+    }
+
+    /**
+     * 批量查询缓存：一次MGET查询redis，未命中的id用一次数据库查询加载，再用一次pipeline回填redis
+     * @param keyPrefix 缓存key前缀
+     * @param ids 要查询的id
+     * @param type 缓存数据类型
+     * @param dbFallback 按id批量查询数据库，返回 id -> 数据，不存在的id不包含在结果中
+     * @param time 缓存过期时间
+     * @param unit 时间单位
+     * @return id -> 数据，按ids的顺序排列，不存在的id不包含在结果中
+     */
+    public <R,ID> Map<ID,R> queryBatch(String keyPrefix, Collection<ID> ids, Class<R> type,
+                                       Function<Collection<ID>, Map<ID,R>> dbFallback, Long time, TimeUnit unit){
+        Map<ID,R> found = new HashMap<>(ids.size());
+        //去重，过滤布隆过滤器判断一定不存在的id，查询本地缓存
+        List<ID> redisIds = new ArrayList<>(ids.size());
+        for (ID id : new LinkedHashSet<>(ids)) {
+            if (!bloomFilters.mightContainCached(keyPrefix, id)){
+                continue;
+            }
+            Object cached = nearCache.get(keyPrefix + id);
+            if (type.isInstance(cached)){
+                found.put(id, type.cast(cached));
+            } else if (!NearCache.isNull(cached)){
+                redisIds.add(id);
+            }
+        }
+        long version = nearCache.version();
+        //一次MGET查询redis
+        List<ID> missIds = new ArrayList<>();
+        if (!redisIds.isEmpty()){
+            byte[][] keys = redisIds.stream().map(id -> raw(keyPrefix + id)).toArray(byte[][]::new);
+            List<byte[]> values = stringRedisTemplate.execute((RedisCallback<List<byte[]>>) connection -> connection.mGet(keys));
+            for (int i = 0; i < redisIds.size(); i++) {
+                ID id = redisIds.get(i);
+                byte[] bytes = values == null ? null : values.get(i);
+                R r = bytes != null && bytes.length > 0 ? decode(bytes,type) : null;
+                if (r != null){
+                    found.put(id, r);
+                    nearCache.put(keyPrefix + id, r, version);
+                } else if (bytes != null && bytes.length == 0){
+                    //命中空值
+                    nearCache.put(keyPrefix + id, null, version);
+                } else {
+                    //未命中或无法解码
+                    missIds.add(id);
+                }
+            }
+        }
+        //未命中的id一次查询数据库，一次pipeline回填redis
+        if (!missIds.isEmpty()){
+            Map<ID,R> loaded = dbFallback.apply(missIds);
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (ID id : missIds) {
+                    R r = loaded.get(id);
+                    if (r == null){
+                        //存入空值，防止缓存穿透
+                        connection.pSetEx(raw(keyPrefix + id), TimeUnit.MINUTES.toMillis(CACHE_NULL_TTL), EMPTY);
+                    } else {
+                        connection.pSetEx(raw(keyPrefix + id), unit.toMillis(time), encode(r));
+                    }
+                }
+                return null;
+            });
+            for (ID id : missIds) {
+                R r = loaded.get(id);
+                if (r != null){
+                    found.put(id, r);
+                }
+                nearCache.put(keyPrefix + id, r, version);
+            }
         }
-        //查询到，存入redis
-        set(key,r,time,unit);
+        //按请求的顺序返回
+        Map<ID,R> result = new LinkedHashMap<>(found.size());
+        for (ID id : ids) {
+            R r = found.get(id);
+            if (r != null){
+                result.put(id, r);
+            }
+        }
+        return result;
+    }
 
-        return r;
+    //使用互斥锁解决缓存击穿，本节点的线程先在本地排队，只有胜出者去redis抢锁，其它线程等待锁释放后重新读缓存
+    public <R,ID> R queryWithMutex(String keyPrefix, ID id, Class<R> type, Function<ID,R> dbFallback,Long time,TimeUnit unit){
+        String key = keyPrefix + id;
+        //从redis中查询缓存
+        byte[] bytes = getBytes(key);
+        if (bytes != null && bytes.length == 0){
+            //命中空值
+            return null;
+        }
+        R cached = bytes != null ? decode(bytes,type) : null;
+        if (cached != null){
+            return cached;
+        }
+        //获取互斥锁
+        CompositeLock lock = new CompositeLock("mutex:" + key, stringRedisTemplate);
+        boolean isLock;
+        try {
+            isLock = lock.tryLock(LOCK_SHOP_WAIT_MILLIS, LOCK_SHOP_TTL * 1000, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+        try {
+            //拿到锁或等待超时，重建可能已经完成，再次查询缓存
+            bytes = getBytes(key);
+            if (bytes != null && bytes.length == 0){
+                return null;
+            }
+            cached = bytes != null ? decode(bytes,type) : null;
+            if (cached != null){
+                return cached;
+            }
+            R r = dbFallback.apply(id);
+            if (!isLock){
+                //等待超时，直接返回数据库的结果，不写缓存
+                return r;
+            }
+            if (r == null){
+                //存入空值，防止缓存穿透
+                setBytes(key, EMPTY, TimeUnit.MINUTES.toMillis(CACHE_NULL_TTL));
+                return null;
+            }
+            //只是回填缓存，不需要通知其它节点删除本地缓存
+            setBytes(key, encode(r), unit.toMillis(time));
+            return r;
+        } finally {
+            if (isLock){
+                lock.unlock();
+            }
+        }
     }
 
     //定义用于重建缓存的线程池
     private static final ExecutorService CACHE_REBUILD_POOL = Executors.newFixedThreadPool(10);
     public <R,ID> R queryWithLogicExpire(String keyPrefix,ID id,Class<R> type,Function<ID,R> dbFallback,Long time,TimeUnit unit){
         String key = keyPrefix + id;
-        //从redis中查询商户缓存
-        String json = stringRedisTemplate.opsForValue().get(key);
+        //从redis中查询商户缓存，一次解码得到过期时间和数据
+        RedisData redisData = getLogicExpire(key, type);
 
-        if (StrUtil.isBlank(json)){
+        if (redisData == null){
             //查询不到，直接返回空
             return  null;
         }
         //查询到，判断逻辑过期时间
-        RedisData redisData = JSONUtil.toBean(json, RedisData.class);
-        R r = JSONUtil.toBean((JSONObject) redisData.getData(), type);
+        R r = type.cast(redisData.getData());
         LocalDateTime expireTime = redisData.getExpireTime();
         if (expireTime.isAfter(LocalDateTime.now())){
             //如果过期时间大于当前时间，未过期，则直接返回
             return r;
         }
         //如果过期时间小于当前时间，已过期，需要缓存重建
+        //本节点同一个key只有一个线程去redis抢锁，其它线程直接返回旧数据
+        CompletableFuture<Object> flight = new CompletableFuture<>();
+        if (inFlight.putIfAbsent(key, flight) != null){
+            return r;
+        }
         //尝试获取互斥锁
         String lockKey = LOCK_SHOP_KEY + id;
-        boolean isLock = tryLock(lockKey);
+        boolean isLock;
+        try {
+            isLock = tryLock(lockKey);
+        } catch (RuntimeException e) {
+            land(key, flight, null, e);
+            throw e;
+        }
         if (!isLock){
             //如果获取锁失败，则直接返回旧数据
+            land(key, flight, r, null);
             return r;
         }
         //由于多线程，获取锁成功后，需要再次判断缓存是否过期
-        json = stringRedisTemplate.opsForValue().get(key);
-        if (StrUtil.isNotBlank(json)){
+        RedisData redisData2 = getLogicExpire(key, type);
+        if (redisData2 != null){
             //判断缓存是否过期，如果缓存未过期，则直接返回
-            RedisData redisData2 = JSONUtil.toBean(json, RedisData.class);
             LocalDateTime expireTime2 = redisData2.getExpireTime();
             if (expireTime2.isAfter(LocalDateTime.now())){
-                return JSONUtil.toBean((JSONObject) redisData2.getData(), type);
+                R r2 = type.cast(redisData2.getData());
+                unLock(lockKey);
+                land(key, flight, r2, null);
+                return r2;
             }
 
         }
@@ -133,7 +357,9 @@ public class CacheClient {
                 R r1 = dbFallback.apply(id);
                 //写入redis
                 setWithLogicExpire(key,r1,time,unit);
+                land(key, flight, r1, null);
             } catch (Exception e) {
+                land(key, flight, null, e);
                 throw new RuntimeException(e);
             } finally {
                 //释放互斥锁
@@ -144,6 +370,115 @@ public class CacheClient {
         //先返回过期的旧数据
         return r;
     }
+
+    //key -> 本节点正在进行的缓存加载，同一个key同时只有一个线程查询数据库
+    private final Map<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+
+    //本节点第一个调用的线程执行loader，同时到达的其它线程等待并共享它的结果
+    @SuppressWarnings("unchecked")
+    private <R> R loadOnce(String key, Supplier<R> loader){
+        CompletableFuture<Object> flight = new CompletableFuture<>();
+        CompletableFuture<Object> existing = inFlight.putIfAbsent(key, flight);
+        if (existing != null){
+            try {
+                return (R) existing.join();
+            } catch (CompletionException e) {
+                //加载线程失败，抛出同样的异常
+                if (e.getCause() instanceof RuntimeException){
+                    throw (RuntimeException) e.getCause();
+                }
+                throw e;
+            }
+        }
+        R r;
+        try {
+            r = loader.get();
+        } catch (RuntimeException e) {
+            land(key, flight, null, e);
+            throw e;
+        }
+        land(key, flight, r, null);
+        return r;
+    }
+
+    //结束本次加载，唤醒等待的线程
+    private void land(String key, CompletableFuture<Object> flight, Object value, Throwable error){
+        inFlight.remove(key, flight);
+        if (error != null){
+            flight.completeExceptionally(error);
+        } else {
+            flight.complete(value);
+        }
+    }
+
+    /**
+     * 存入列表到redis
+     * @param key 键
+     * @param values 列表
+     * @param type 元素类型
+     * @param time 过期时间
+     * @param unit 时间单位
+     */
+    public <R> void setList(String key, List<R> values, Class<R> type, Long time, TimeUnit unit){
+        setBytes(key, codecFor(type).encodeList(values, type), unit.toMillis(time));
+    }
+
+    /**
+     * 从redis查询列表
+     * @return 未命中或无法解码时返回null
+     */
+    public <R> List<R> getList(String key, Class<R> type){
+        byte[] bytes = getBytes(key);
+        CacheCodec codec = bytes == null ? null : codecOf(bytes);
+        return codec == null ? null : codec.decodeList(bytes, type);
+    }
+
+    //写入时使用配置的编码，不支持该类型时使用json
+    private CacheCodec codecFor(Class<?> type){
+        return writeCodec.supports(type) ? writeCodec : jsonCodec;
+    }
+
+    //按数据开头判断写入时使用的编码
+    private CacheCodec codecOf(byte[] bytes){
+        for (CacheCodec codec : codecs) {
+            if (codec.accepts(bytes)) {
+                return codec;
+            }
+        }
+        return null;
+    }
+
+    private byte[] encode(Object value){
+        return codecFor(value.getClass()).encode(value);
+    }
+
+    private <R> R decode(byte[] bytes, Class<R> type){
+        CacheCodec codec = codecOf(bytes);
+        return codec == null ? null : codec.decode(bytes, type);
+    }
+
+    private <R> RedisData getLogicExpire(String key, Class<R> type){
+        byte[] bytes = getBytes(key);
+        CacheCodec codec = bytes == null ? null : codecOf(bytes);
+        return codec == null ? null : codec.decodeLogicExpire(bytes, type);
+    }
+
+    private byte[] getBytes(String key){
+        return stringRedisTemplate.execute((RedisCallback<byte[]>) connection -> connection.get(raw(key)));
+    }
+
+    //ttlMillis小于等于0时不过期
+    private void setBytes(String key, byte[] value, long ttlMillis){
+        stringRedisTemplate.execute((RedisCallback<Object>) connection -> ttlMillis > 0
+                ? connection.pSetEx(raw(key), ttlMillis, value)
+                : connection.set(raw(key), value));
+    }
+
+    private static byte[] raw(String key){
+        return key.getBytes(StandardCharsets.UTF_8);
+    }
+
+    //重建在线程池中完成后释放，不能使用与线程绑定的锁
     private boolean tryLock(String key){
         Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, "1", LOCK_SHOP_TTL, TimeUnit.SECONDS);
         return BooleanUtil.isTrue(flag);
@@ -0,0 +1,51 @@
+package com.hmdp.utils;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * 缓存值的编码方式
+ * CacheClient 写入时使用 hmdp.cache.codec 指定的编码（不支持该类型时使用json），
+ * 读取时按数据开头选择编码，切换编码后redis中已有的缓存仍然可以读取
+ */
+public interface CacheCodec {
+
+    /**
+     * 编码名称，对应 hmdp.cache.codec
+     */
+    String name();
+
+    /**
+     * 是否可以编码该类型的对象
+     */
+    boolean supports(Class<?> type);
+
+    /**
+     * 是否是本编码写入的数据
+     */
+    boolean accepts(byte[] bytes);
+
+    byte[] encode(Object value);
+
+    /**
+     * @return 数据与type不匹配（例如类的字段已经修改）时返回null，按未命中处理
+     */
+    <T> T decode(byte[] bytes, Class<T> type);
+
+    <T> byte[] encodeList(List<T> values, Class<T> type);
+
+    /**
+     * @return 数据与type不匹配时返回null
+     */
+    <T> List<T> decodeList(byte[] bytes, Class<T> type);
+
+    /**
+     * 编码带逻辑过期时间的数据
+     */
+    byte[] encodeLogicExpire(Object value, LocalDateTime expireTime);
+
+    /**
+     * @return data为type类型的RedisData，数据与type不匹配时返回null
+     */
+    <T> RedisData decodeLogicExpire(byte[] bytes, Class<T> type);
+}
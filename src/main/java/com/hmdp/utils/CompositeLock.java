@@ -0,0 +1,134 @@
+package com.hmdp.utils;
+
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 两级锁：先获取本地锁，再获取redis分布式锁
+ * 同一节点上争抢同一把锁的线程在本地排队，只有拿到本地锁的线程访问redis，
+ * 热点key上的redis加锁请求数与节点数成正比，而不是与线程数成正比
+ */
+public class CompositeLock implements ILock {
+
+    /**
+     * 锁名 -> 本地锁，按锁名区分，不同的锁名互不等待；没有线程等待或持有时移除
+     */
+    private static final ConcurrentHashMap<String, LocalLock> LOCAL_LOCKS = new ConcurrentHashMap<>();
+
+    private final String name;
+    private final SimpleRedisLock remote;
+
+    public CompositeLock(String name, StringRedisTemplate stringRedisTemplate) {
+        this.name = name;
+        this.remote = new SimpleRedisLock(name, stringRedisTemplate);
+    }
+
+    @Override
+    public boolean tryLock(long timeOutSec) {
+        ReentrantLock local = acquireLocal();
+        if (!local.tryLock()) {
+            releaseLocal();
+            return false;
+        }
+        boolean locked = false;
+        try {
+            locked = remote.tryLock(timeOutSec);
+            return locked;
+        } finally {
+            //redis加锁失败时释放本地锁
+            if (!locked) {
+                unlockLocal(local);
+            }
+        }
+    }
+
+    @Override
+    public boolean tryLock() {
+        ReentrantLock local = acquireLocal();
+        if (!local.tryLock()) {
+            releaseLocal();
+            return false;
+        }
+        boolean locked = false;
+        try {
+            locked = remote.tryLock();
+            return locked;
+        } finally {
+            if (!locked) {
+                unlockLocal(local);
+            }
+        }
+    }
+
+    @Override
+    public boolean tryLock(long waitTime, long leaseTime, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(waitTime);
+        ReentrantLock local = acquireLocal();
+        //本地排队
+        boolean queued;
+        try {
+            queued = local.tryLock(waitTime, unit);
+        } catch (InterruptedException e) {
+            releaseLocal();
+            throw e;
+        }
+        if (!queued) {
+            releaseLocal();
+            return false;
+        }
+        boolean locked = false;
+        try {
+            //只有本地的胜出者访问redis，等待时间扣除本地排队的时间
+            long remaining = Math.max(0, deadline - System.nanoTime());
+            locked = remote.tryLock(remaining, unit.toNanos(leaseTime), TimeUnit.NANOSECONDS);
+            return locked;
+        } finally {
+            if (!locked) {
+                unlockLocal(local);
+            }
+        }
+    }
+
+    @Override
+    public void unlock() {
+        try {
+            remote.unlock();
+        } finally {
+            //持有本地锁时引用计数大于0，一定还在map中
+            LocalLock entry = LOCAL_LOCKS.get(name);
+            if (entry != null && entry.lock.isHeldByCurrentThread()) {
+                unlockLocal(entry.lock);
+            }
+        }
+    }
+
+    //引用计数加1并返回本地锁，计数覆盖等待和持有的整个过程，保证同名的线程拿到同一把锁
+    private ReentrantLock acquireLocal() {
+        return LOCAL_LOCKS.compute(name, (k, entry) -> {
+            if (entry == null) {
+                entry = new LocalLock();
+            }
+            entry.refs++;
+            return entry;
+        }).lock;
+    }
+
+    //引用计数减1，减到0时移除
+    private void releaseLocal() {
+        LOCAL_LOCKS.computeIfPresent(name, (k, entry) -> --entry.refs == 0 ? null : entry);
+    }
+
+    private void unlockLocal(ReentrantLock local) {
+        local.unlock();
+        releaseLocal();
+    }
+
+    private static class LocalLock {
+        private final ReentrantLock lock = new ReentrantLock();
+        //只在compute中修改
+        private int refs;
+    }
+}
@@ -1,5 +1,7 @@
 package com.hmdp.utils;
 
+import java.util.concurrent.TimeUnit;
+
 public interface ILock {
 
     /**
@@ -9,6 +11,21 @@ public interface ILock {
      */
     boolean tryLock(long timeOutSec);
 
+    /**
+     * 尝试获取锁，持有期间自动续期，直到释放锁或进程退出
+     * @return true:获取锁成功，false:获取锁失败
+     */
+    boolean tryLock();
+
+    /**
+     * 获取锁，锁被其它线程持有时阻塞等待其释放，最多等待waitTime
+     * @param waitTime 最长等待时间
+     * @param leaseTime 锁持有的超时时间，小于等于0时持有期间自动续期
+     * @param unit 时间单位
+     * @return true:获取锁成功，false:等待超时
+     */
+    boolean tryLock(long waitTime, long leaseTime, TimeUnit unit) throws InterruptedException;
+
     /**
      * 释放锁
      */
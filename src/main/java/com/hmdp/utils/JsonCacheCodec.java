@@ -0,0 +1,69 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * json编码，与之前直接写入json字符串的缓存格式相同
+ */
+@Component
+public class JsonCacheCodec implements CacheCodec {
+
+    public static final String NAME = "json";
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public boolean supports(Class<?> type) {
+        return true;
+    }
+
+    @Override
+    public boolean accepts(byte[] bytes) {
+        return bytes.length > 0 && (bytes[0] == '{' || bytes[0] == '[');
+    }
+
+    @Override
+    public byte[] encode(Object value) {
+        return JSONUtil.toJsonStr(value).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public <T> T decode(byte[] bytes, Class<T> type) {
+        return JSONUtil.toBean(new String(bytes, StandardCharsets.UTF_8), type);
+    }
+
+    @Override
+    public <T> byte[] encodeList(List<T> values, Class<T> type) {
+        return encode(values);
+    }
+
+    @Override
+    public <T> List<T> decodeList(byte[] bytes, Class<T> type) {
+        return JSONUtil.toList(JSONUtil.parseArray(new String(bytes, StandardCharsets.UTF_8)), type);
+    }
+
+    @Override
+    public byte[] encodeLogicExpire(Object value, LocalDateTime expireTime) {
+        RedisData redisData = new RedisData();
+        redisData.setExpireTime(expireTime);
+        redisData.setData(value);
+        return encode(redisData);
+    }
+
+    @Override
+    public <T> RedisData decodeLogicExpire(byte[] bytes, Class<T> type) {
+        RedisData redisData = decode(bytes, RedisData.class);
+        Object data = redisData.getData();
+        redisData.setData(data instanceof JSONObject ? JSONUtil.toBean((JSONObject) data, type) : null);
+        return redisData;
+    }
+}
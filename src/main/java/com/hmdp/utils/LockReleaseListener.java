@@ -0,0 +1,79 @@
+package com.hmdp.utils;
+
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.constant.RedisConstants.LOCK_RELEASE_CHANNEL;
+
+/**
+ * 本节点等待分布式锁的线程
+ * 解锁脚本在锁完全释放时向 lock:release 频道发布锁的key，收到后唤醒本节点等待该锁的一个线程重新抢锁；
+ * 消息丢失或锁过期释放时，等待的线程最多等到锁的剩余有效期后自行重试
+ */
+@Component
+public class LockReleaseListener implements MessageListener {
+
+    //锁key -> 等待者
+    private static final Map<String, Waiters> WAITERS = new ConcurrentHashMap<>();
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @PostConstruct
+    private void init() {
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(LOCK_RELEASE_CHANNEL));
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        Waiters waiters = WAITERS.get(new String(message.getBody(), StandardCharsets.UTF_8));
+        if (waiters != null) {
+            waiters.semaphore.release();
+        }
+    }
+
+    /**
+     * 登记为锁的等待者，必须在第一次抢锁之前登记，避免错过两次抢锁之间的释放消息
+     */
+    static Waiters register(String key) {
+        return WAITERS.compute(key, (k, w) -> {
+            if (w == null) {
+                w = new Waiters();
+            }
+            w.count++;
+            return w;
+        });
+    }
+
+    /**
+     * 取消登记，最后一个等待者离开时移除
+     */
+    static void unregister(String key) {
+        WAITERS.computeIfPresent(key, (k, w) -> --w.count == 0 ? null : w);
+    }
+
+    static class Waiters {
+        private final Semaphore semaphore = new Semaphore(0);
+        //只在compute中修改
+        private int count;
+
+        /**
+         * 等待锁释放消息
+         * @return true:收到释放消息，false:超时
+         */
+        boolean await(long millis) throws InterruptedException {
+            return semaphore.tryAcquire(millis, TimeUnit.MILLISECONDS);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.thread.ThreadFactoryBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分布式锁看门狗
+ * 所有使用默认有效期获取的 SimpleRedisLock 都登记到这里，由一个共享的线程每隔有效期的1/3续期一次，
+ * 同一个redis的所有锁在一次pipeline中续期；锁已经不再由登记的线程持有时移除登记
+ */
+@Slf4j
+final class LockWatchdog {
+
+    /**
+     * 默认的锁有效期，持有锁的进程宕机后最多经过这么久锁自动释放
+     */
+    static final long LEASE_MILLIS = 30000;
+
+    private static final String RENEW_SCRIPT;
+
+    static {
+        DefaultRedisScript<Long> script = new DefaultRedisScript<>();
+        script.setLocation(new ClassPathResource("reentrant_renew.lua"));
+        RENEW_SCRIPT = script.getScriptAsString();
+    }
+
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(
+            ThreadFactoryBuilder.create().setNamePrefix("redis-lock-watchdog-").setDaemon(true).build());
+
+    //redis -> (锁key+线程标识 -> 需要续期的锁)
+    private static final Map<StringRedisTemplate, Map<String, Lease>> LEASES = new ConcurrentHashMap<>();
+
+    static {
+        SCHEDULER.scheduleWithFixedDelay(LockWatchdog::renewAll, LEASE_MILLIS / 3, LEASE_MILLIS / 3, TimeUnit.MILLISECONDS);
+    }
+
+    private LockWatchdog() {
+    }
+
+    static void register(StringRedisTemplate stringRedisTemplate, String key, String owner) {
+        LEASES.computeIfAbsent(stringRedisTemplate, t -> new ConcurrentHashMap<>())
+                .putIfAbsent(key + '\n' + owner, new Lease(key, owner));
+    }
+
+    static void unregister(StringRedisTemplate stringRedisTemplate, String key, String owner) {
+        Map<String, Lease> leases = LEASES.get(stringRedisTemplate);
+        if (leases != null) {
+            leases.remove(key + '\n' + owner);
+        }
+    }
+
+    private static void renewAll() {
+        LEASES.forEach((stringRedisTemplate, leases) -> {
+            if (leases.isEmpty()) {
+                return;
+            }
+            List<Lease> batch = new ArrayList<>(leases.values());
+            try {
+                String lease = String.valueOf(LEASE_MILLIS);
+                List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    StringRedisConnection conn = (StringRedisConnection) connection;
+                    for (Lease l : batch) {
+                        conn.eval(RENEW_SCRIPT, ReturnType.INTEGER, 1, l.key, l.owner, lease);
+                    }
+                    return null;
+                });
+                for (int i = 0; i < batch.size(); i++) {
+                    if (!Long.valueOf(1L).equals(results.get(i))) {
+                        //锁已经释放或者已过期被其它线程获取
+                        Lease l = batch.get(i);
+                        leases.remove(l.key + '\n' + l.owner, l);
+                        log.warn("锁已不再持有，停止续期，key=" + l.key);
+                    }
+                }
+            } catch (Exception e) {
+                log.error("锁续期失败", e);
+            }
+        });
+    }
+
+    private static class Lease {
+        private final String key;
+        private final String owner;
+
+        Lease(String key, String owner) {
+            this.key = key;
+            this.owner = owner;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.hmdp.utils;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.hmdp.constant.RedisConstants.CACHE_INVALIDATE_CHANNEL;
+
+/**
+ * 本节点的一级缓存，位于redis缓存之前，缓存反序列化后的对象
+ * 容量有限，超过时按W-TinyLFU淘汰，写入后ttl-millis过期；
+ * 修改数据时通过redis pub/sub广播key，所有节点（包括本节点）删除对应的本地缓存
+ * <p>
+ * 返回的是缓存中的同一个对象，调用方不能修改
+ */
+@Slf4j
+@Component
+public class NearCache implements MessageListener {
+
+    /**
+     * 空值标记，缓存穿透时缓存的null
+     */
+    private static final Object NULL = new Object();
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Value("${hmdp.cache.near.enabled:true}")
+    private boolean enabled;
+
+    @Value("${hmdp.cache.near.maximum-size:10000}")
+    private long maximumSize;
+
+    @Value("${hmdp.cache.near.ttl-millis:5000}")
+    private long ttlMillis;
+
+    private Cache<String, Object> cache;
+
+    //每收到一次失效消息加1，用于丢弃失效之前从redis读到的旧数据
+    private final AtomicLong version = new AtomicLong();
+
+    @PostConstruct
+    private void init() {
+        cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(Duration.ofMillis(ttlMillis))
+                .build();
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(CACHE_INVALIDATE_CHANNEL));
+    }
+
+    /**
+     * 当前失效版本，在读取redis之前获取
+     */
+    public long version() {
+        return version.get();
+    }
+
+    /**
+     * 查询本地缓存
+     * @return 未命中返回null，命中空值返回 {@link #isNull} 为true的对象
+     */
+    public Object get(String key) {
+        return enabled ? cache.getIfPresent(key) : null;
+    }
+
+    public static boolean isNull(Object value) {
+        return value == NULL;
+    }
+
+    /**
+     * 写入本地缓存
+     * @param value 为null时缓存空值
+     * @param version 读取redis或数据库之前获取的版本，期间收到过失效消息则不写入
+     */
+    public void put(String key, Object value, long version) {
+        if (!enabled) {
+            return;
+        }
+        cache.put(key, value == null ? NULL : value);
+        if (this.version.get() != version) {
+            //写入期间收到失效消息，数据可能已经过期
+            cache.invalidate(key);
+        }
+    }
+
+    /**
+     * 广播失效消息，所有节点删除该key的本地缓存，在更新redis或数据库之后调用
+     */
+    public void invalidate(String key) {
+        version.incrementAndGet();
+        cache.invalidate(key);
+        stringRedisTemplate.convertAndSend(CACHE_INVALIDATE_CHANNEL, key);
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String key = new String(message.getBody(), StandardCharsets.UTF_8);
+        version.incrementAndGet();
+        cache.invalidate(key);
+        log.debug("收到缓存失效消息，key={}", key);
+    }
+}
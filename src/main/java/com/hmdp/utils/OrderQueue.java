@@ -0,0 +1,59 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.VoucherOrder;
+
+import java.util.List;
+
+/**
+ * 秒杀订单队列，秒杀资格判断通过后的订单经由队列异步落库
+ * 通过 hmdp.seckill.queue.type 选择实现：redis-stream（默认，多节点）或 ring-buffer（单节点，内存队列+本地日志）
+ */
+public interface OrderQueue {
+
+    /**
+     * seckill.lua 可以在脚本中直接 XADD 的stream
+     * @return stream的key，null表示脚本不写队列，资格判断通过后需调用 {@link #publish}
+     */
+    String scriptStreamKey();
+
+    /**
+     * 发送一个订单消息，返回时消息已持久化
+     */
+    void publish(long orderId, long userId, long voucherId);
+
+    /**
+     * 开始消费，订单由handler批量处理
+     */
+    void start(Handler handler);
+
+    /**
+     * 停止消费，未处理完的消息在下次启动后继续处理
+     */
+    void stop();
+
+    /**
+     * 积压是否超过阈值，超过时秒杀请求应直接返回
+     */
+    boolean isOverloaded();
+
+    /**
+     * 把死信重新投递到订单队列
+     * @param count 最多重新投递的数量
+     * @return 实际重新投递的数量
+     */
+    int replayDeadLetters(int count);
+
+    interface Handler {
+
+        /**
+         * 批量处理订单
+         * @return 处理成功的订单，其余的订单由队列负责重试
+         */
+        List<VoucherOrder> handle(List<VoucherOrder> orders) throws InterruptedException;
+
+        /**
+         * 订单重试多次仍失败，已转入死信
+         */
+        void onDeadLetter(VoucherOrder order);
+    }
+}
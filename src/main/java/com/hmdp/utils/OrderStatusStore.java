@@ -0,0 +1,83 @@
+package com.hmdp.utils;
+
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
+import com.hmdp.dto.OrderStatusDTO;
+import com.hmdp.entity.VoucherOrder;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.constant.RedisConstants.ORDER_STATUS_KEY;
+import static com.hmdp.constant.RedisConstants.ORDER_STATUS_TTL;
+
+/**
+ * 秒杀订单的异步处理结果
+ * 订单消费者落库或拒绝订单后写入短期有效的redis状态，客户端轮询时先查本地缓存再查redis，不访问数据库
+ */
+@Component
+public class OrderStatusStore {
+
+    //本地只缓存最终状态，最多缓存的订单数和有效期
+    private static final int LOCAL_CAPACITY = 10000;
+    private static final long LOCAL_TTL_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    private final LRUCache<Long, OrderStatusDTO> localCache = CacheUtil.newLRUCache(LOCAL_CAPACITY, LOCAL_TTL_MILLIS);
+
+    /**
+     * 批量写入订单状态，一次pipeline完成
+     * @param voucherOrders 订单
+     * @param status 状态
+     */
+    public void write(Collection<VoucherOrder> voucherOrders, String status) {
+        if (voucherOrders.isEmpty()) {
+            return;
+        }
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (VoucherOrder voucherOrder : voucherOrders) {
+                String key = ORDER_STATUS_KEY + voucherOrder.getId();
+                Map<String, String> values = new HashMap<>(2);
+                values.put("userId", voucherOrder.getUserId().toString());
+                values.put("status", status);
+                conn.hMSet(key, values);
+                conn.expire(key, TimeUnit.MINUTES.toSeconds(ORDER_STATUS_TTL));
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 查询订单状态
+     * @param orderId 订单id
+     * @return 订单状态，redis中没有记录时为处理中，userId为空
+     */
+    public OrderStatusDTO get(Long orderId) {
+        OrderStatusDTO status = localCache.get(orderId);
+        if (status != null) {
+            return status;
+        }
+        Map<Object, Object> values = stringRedisTemplate.opsForHash().entries(ORDER_STATUS_KEY + orderId);
+        status = new OrderStatusDTO();
+        status.setOrderId(orderId);
+        if (values.isEmpty()) {
+            //还没有处理结果，不缓存
+            status.setStatus(OrderStatusDTO.PROCESSING);
+            return status;
+        }
+        status.setUserId(Long.valueOf((String) values.get("userId")));
+        status.setStatus((String) values.get("status"));
+        localCache.put(orderId, status);
+        return status;
+    }
+}
@@ -0,0 +1,163 @@
+package com.hmdp.utils;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.stream.PendingMessagesSummary;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamInfo;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * stream.order 的积压监控和裁剪
+ * 定时读取各消费者组的积压（尚未投递的消息数）、PEL大小和最早未确认消息的等待时间，注册为监控指标；
+ * 按所有消费者组都已确认的位置用 XTRIM MINID ~ 裁剪stream；积压超过阈值时秒杀准入直接拒绝请求
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "hmdp.seckill.queue.type", havingValue = "redis-stream", matchIfMissing = true)
+public class OrderStreamMonitor {
+
+    private static final String STREAM_KEY = "stream.order";
+
+    private static final DefaultRedisScript<Long> TRIM_SCRIPT;
+
+    static {
+        TRIM_SCRIPT = new DefaultRedisScript<>();
+        TRIM_SCRIPT.setLocation(new ClassPathResource("stream_trim.lua"));
+        TRIM_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    @Value("${hmdp.seckill.stream.trim-enabled:true}")
+    private boolean trimEnabled;
+
+    //积压（未投递+未确认）超过该值时拒绝新的秒杀请求，0表示不限制
+    @Value("${hmdp.seckill.stream.max-backlog:100000}")
+    private long maxBacklog;
+
+    //消费者组名 -> 最近一次采集的指标
+    private final Map<String, GroupStats> groups = new ConcurrentHashMap<>();
+
+    private volatile long length;
+
+    //各消费者组中最大的积压
+    private volatile long backlog;
+
+    @PostConstruct
+    private void init() {
+        Gauge.builder("seckill.stream.length", this, m -> m.length)
+                .tag("stream", STREAM_KEY)
+                .description("stream中的消息数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 积压是否超过阈值，超过时秒杀请求应直接返回
+     */
+    public boolean isOverloaded() {
+        return maxBacklog > 0 && backlog > maxBacklog;
+    }
+
+    @Scheduled(fixedDelayString = "${hmdp.seckill.stream.monitor-interval-millis:1000}")
+    public void refresh() {
+        try {
+            if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(STREAM_KEY))) {
+                length = 0;
+                backlog = 0;
+                return;
+            }
+            long len = stringRedisTemplate.opsForStream().size(STREAM_KEY);
+            StreamInfo.XInfoGroups infoGroups = stringRedisTemplate.opsForStream().groups(STREAM_KEY);
+            long worst = 0;
+            //所有消费者组都已确认的位置，比它小的消息都可以删除
+            RecordId trimTo = null;
+            long now = System.currentTimeMillis();
+            for (int i = 0; i < infoGroups.size(); i++) {
+                StreamInfo.XInfoGroup group = infoGroups.get(i);
+                GroupStats stats = groups.computeIfAbsent(group.groupName(), this::register);
+                long pending = group.pendingCount();
+                RecordId lastDelivered = RecordId.of(group.lastDeliveredId());
+                RecordId ackedTo = lastDelivered;
+                long oldestPendingAge = 0;
+                if (pending > 0) {
+                    PendingMessagesSummary summary = stringRedisTemplate.opsForStream().pending(STREAM_KEY, group.groupName());
+                    RecordId minPending = RecordId.of(summary.minMessageId());
+                    oldestPendingAge = Math.max(0, now - minPending.getTimestamp());
+                    ackedTo = minPending;
+                }
+                stats.pending = pending;
+                stats.lag = lagOf(group, len, pending);
+                stats.oldestPendingAgeMillis = oldestPendingAge;
+                worst = Math.max(worst, stats.lag + pending);
+                if (trimTo == null || compare(ackedTo, trimTo) < 0) {
+                    trimTo = ackedTo;
+                }
+            }
+            length = len;
+            backlog = worst;
+            //没有消费者组时不裁剪，消息还没有被任何人读取
+            if (trimEnabled && trimTo != null && trimTo.getTimestamp() > 0) {
+                stringRedisTemplate.execute(TRIM_SCRIPT, Collections.singletonList(STREAM_KEY), trimTo.getValue());
+            }
+        } catch (Exception e) {
+            log.error("采集stream.order积压指标失败", e);
+        }
+    }
+
+    //redis 7 的 XINFO GROUPS 直接返回lag；低版本没有该字段，用 stream长度 - PEL大小 估算，
+    //裁剪后stream中只剩未确认和未投递的消息（以及宏节点内少量已确认的消息），估算值偏大但不会偏小
+    private static long lagOf(StreamInfo.XInfoGroup group, long length, long pending) {
+        Object lag = group.getRaw().get("lag");
+        if (lag instanceof Number) {
+            return ((Number) lag).longValue();
+        }
+        return Math.max(0, length - pending);
+    }
+
+    private static int compare(RecordId a, RecordId b) {
+        int c = Long.compare(a.getTimestamp(), b.getTimestamp());
+        return c != 0 ? c : Long.compare(a.getSequence(), b.getSequence());
+    }
+
+    private GroupStats register(String group) {
+        GroupStats stats = new GroupStats();
+        Gauge.builder("seckill.stream.lag", stats, s -> s.lag)
+                .tags("stream", STREAM_KEY, "group", group)
+                .description("尚未投递给消费者的消息数")
+                .register(meterRegistry);
+        Gauge.builder("seckill.stream.pending", stats, s -> s.pending)
+                .tags("stream", STREAM_KEY, "group", group)
+                .description("已投递但未确认的消息数")
+                .register(meterRegistry);
+        Gauge.builder("seckill.stream.oldest.pending.age", stats, s -> s.oldestPendingAgeMillis)
+                .tags("stream", STREAM_KEY, "group", group)
+                .description("最早未确认消息的等待时间")
+                .baseUnit("milliseconds")
+                .register(meterRegistry);
+        return stats;
+    }
+
+    private static class GroupStats {
+        private volatile long lag;
+        private volatile long pending;
+        private volatile long oldestPendingAgeMillis;
+    }
+}
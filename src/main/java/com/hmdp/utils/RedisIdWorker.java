@@ -1,12 +1,25 @@
 package com.hmdp.utils;
 
+import cn.hutool.core.thread.ThreadFactoryBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 
+@Slf4j
 @Component
 public class RedisIdWorker {
     /**
@@ -17,26 +30,167 @@ public class RedisIdWorker {
      * 序列号的位数
      */
     private static final int COUNT_BITS = 32;
+    /**
+     * 序列号key中的日期格式
+     */
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy:MM:dd");
+
+    private static final long SECONDS_PER_DAY = 86400L;
 
     private StringRedisTemplate stringRedisTemplate;
 
+    /**
+     * 号段长度，每次用INCRBY从redis预留这么多个序列号，在本地分配；小于等于1时每个id都INCR一次
+     */
+    @Value("${hmdp.id.segment.step:1000}")
+    private long segmentStep;
+
+    /**
+     * 当前号段剩余的比例低于该值时异步预取下一个号段
+     */
+    @Value("${hmdp.id.segment.prefetch-ratio:0.2}")
+    private double prefetchRatio;
+
+    /**
+     * 使用雪花算法格式的key前缀，例如 order，这些前缀的id在本地生成；租约失效或时钟回拨时退回redis格式
+     */
+    @Value("${hmdp.id.snowflake-prefixes:}")
+    private Set<String> snowflakePrefixes;
+
+    @Resource
+    private SnowflakeIdWorker snowflakeIdWorker;
+
+    //key前缀 -> 号段
+    private final Map<String, SegmentBuffer> buffers = new ConcurrentHashMap<>();
+
+    //预取号段的线程
+    private final ExecutorService prefetchExecutor = Executors.newSingleThreadExecutor(
+            ThreadFactoryBuilder.create().setNamePrefix("id-segment-prefetch-").setDaemon(true).build());
+
     public RedisIdWorker(StringRedisTemplate stringRedisTemplate) {
         this.stringRedisTemplate = stringRedisTemplate;
     }
 
+    @PreDestroy
+    private void destroy() {
+        prefetchExecutor.shutdownNow();
+    }
+
     public long nextId(String keyPrefix) {
+        if (snowflakePrefixes.contains(keyPrefix) && snowflakeIdWorker.isAvailable()) {
+            try {
+                return snowflakeIdWorker.nextId();
+            } catch (IllegalStateException e) {
+                //租约刚好到期或时钟回拨过多，本次使用redis格式
+            }
+        }
         // 1.生成时间戳
         LocalDateTime now = LocalDateTime.now();
         long nowSecond = now.toEpochSecond(ZoneOffset.UTC);
         long timestamp = nowSecond - BEGIN_TIMESTAMP;
 
-        // 2.生成序列号
-        // 2.1.获取当前日期，精确到天
-        String date = now.format(DateTimeFormatter.ofPattern("yyyy:MM:dd"));
-        // 2.2.自增长
-        long count = stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + date);
+        // 2.生成序列号，序列号按天从1开始自增
+        long day = Math.floorDiv(nowSecond, SECONDS_PER_DAY);
+        long count = segmentStep > 1 ? nextCountFromSegment(keyPrefix, day)
+                : stringRedisTemplate.opsForValue().increment(countKey(keyPrefix, day));
 
         // 3.拼接并返回
         return timestamp << COUNT_BITS | count;
     }
-}
\ No newline at end of file
+
+    //icr:{prefix}:{yyyy:MM:dd}
+    private static String countKey(String keyPrefix, long day) {
+        return "icr:" + keyPrefix + ":" + LocalDate.ofEpochDay(day).format(DATE_FORMATTER);
+    }
+
+    //从本地号段中分配序列号，号段只在所属的那一天使用，保证与其它节点当天分配的序列号不重复
+    private long nextCountFromSegment(String keyPrefix, long day) {
+        SegmentBuffer buffer = buffers.computeIfAbsent(keyPrefix, SegmentBuffer::new);
+        while (true) {
+            Segment segment = buffer.current;
+            if (segment != null && segment.day == day) {
+                long count = segment.cursor.getAndIncrement();
+                if (count < segment.end) {
+                    if (count == segment.prefetchAt) {
+                        //只有分配到这个序列号的线程触发预取
+                        prefetch(buffer, segment);
+                    }
+                    return count;
+                }
+            }
+            //号段用完或者跨天，切换号段
+            switchSegment(buffer, segment, day);
+        }
+    }
+
+    private void switchSegment(SegmentBuffer buffer, Segment exhausted, long day) {
+        synchronized (buffer) {
+            if (buffer.current != exhausted) {
+                //其它线程已经切换
+                return;
+            }
+            Segment next = buffer.next;
+            buffer.next = null;
+            if (next == null || next.day != day) {
+                //预取还没有完成或者预取的是前一天的号段，同步获取
+                next = loadSegment(buffer.keyPrefix, day);
+            }
+            buffer.current = next;
+        }
+    }
+
+    private void prefetch(SegmentBuffer buffer, Segment segment) {
+        prefetchExecutor.execute(() -> {
+            try {
+                Segment next = loadSegment(buffer.keyPrefix, segment.day);
+                synchronized (buffer) {
+                    //当前号段已经被同步切换掉时丢弃预取的号段
+                    if (buffer.current == segment && buffer.next == null) {
+                        buffer.next = next;
+                    }
+                }
+            } catch (Exception e) {
+                //预取失败时在号段用完后同步获取
+                log.error("预取id号段失败，prefix=" + buffer.keyPrefix, e);
+            }
+        });
+    }
+
+    //INCRBY icr:{prefix}:{date} step，得到 [end - step + 1, end] 这一段序列号
+    private Segment loadSegment(String keyPrefix, long day) {
+        long end = stringRedisTemplate.opsForValue().increment(countKey(keyPrefix, day), segmentStep);
+        long start = end - segmentStep + 1;
+        long prefetchAt = start + (long) (segmentStep * (1 - prefetchRatio));
+        return new Segment(day, start, end + 1, prefetchAt);
+    }
+
+    private static class SegmentBuffer {
+        private final String keyPrefix;
+        //正在分配的号段
+        private volatile Segment current;
+        //预取的下一个号段
+        private Segment next;
+
+        SegmentBuffer(String keyPrefix) {
+            this.keyPrefix = keyPrefix;
+        }
+    }
+
+    private static class Segment {
+        //号段所属的日期
+        private final long day;
+        //下一个分配的序列号
+        private final AtomicLong cursor;
+        //号段结束位置（不包含）
+        private final long end;
+        //分配到这个序列号时预取下一个号段
+        private final long prefetchAt;
+
+        Segment(long day, long start, long end, long prefetchAt) {
+            this.day = day;
+            this.cursor = new AtomicLong(start);
+            this.end = end;
+            this.prefetchAt = prefetchAt;
+        }
+    }
+}
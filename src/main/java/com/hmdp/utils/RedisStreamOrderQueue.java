@@ -0,0 +1,315 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.lang.UUID;
+import cn.hutool.core.thread.ThreadFactoryBuilder;
+import com.hmdp.entity.VoucherOrder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisZSetCommands.Limit;
+import org.springframework.data.redis.connection.stream.*;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 基于redis stream的订单队列，seckill.lua 直接把订单写入 stream.order，
+ * 多个消费者线程以消费者组g1读取；未确认的消息由恢复任务按指数退避重试，超过重试次数转入死信队列 stream.order.dlq
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "hmdp.seckill.queue.type", havingValue = "redis-stream", matchIfMissing = true)
+public class RedisStreamOrderQueue implements OrderQueue {
+
+    private static final String QUEUE_NAME = "stream.order";
+
+    private static final String GROUP_NAME = "g1";
+
+    //死信队列，保存重试多次仍失败的订单消息
+    private static final String DEAD_LETTER_QUEUE = "stream.order.dlq";
+
+    //本节点的id，消费者名称以它为前缀，不同节点的消费者不会共用同一个名称和pendingList
+    private static final String NODE_ID = UUID.randomUUID().toString(true);
+
+    //恢复任务认领消息时使用的消费者名称
+    private static final String RECOVERY_CONSUMER = NODE_ID + "-recovery";
+
+    //停止时等待消费者线程退出的时间，需要大于XREADGROUP的阻塞时间
+    private static final long STOP_WAIT_SECONDS = 3;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private OrderStreamMonitor orderStreamMonitor;
+
+    //stream.order 消费者数量，每个消费者独占一个线程
+    @Value("${hmdp.seckill.consumer.count:4}")
+    private int consumerCount;
+
+    //每次XREADGROUP最多读取的消息数
+    @Value("${hmdp.seckill.consumer.batch-size:50}")
+    private int batchSize;
+
+    //消息最多投递次数，超过后转入死信队列
+    @Value("${hmdp.seckill.recovery.max-retries:5}")
+    private long maxRetries;
+
+    //第一次重试前消息至少空闲的时间，之后每次翻倍
+    @Value("${hmdp.seckill.recovery.base-backoff-millis:5000}")
+    private long baseBackoffMillis;
+
+    @Value("${hmdp.seckill.recovery.max-backoff-millis:300000}")
+    private long maxBackoffMillis;
+
+    private Handler handler;
+
+    //消费者线程池
+    private ExecutorService consumerExecutor;
+
+    //恢复任务线程
+    private ScheduledExecutorService recoveryExecutor;
+
+    @Override
+    public String scriptStreamKey() {
+        return QUEUE_NAME;
+    }
+
+    @Override
+    public void publish(long orderId, long userId, long voucherId) {
+        //XADD stream.order * voucherId v userId u id o
+        Map<String, String> message = new HashMap<>(4);
+        message.put("voucherId", String.valueOf(voucherId));
+        message.put("userId", String.valueOf(userId));
+        message.put("id", String.valueOf(orderId));
+        stringRedisTemplate.opsForStream().add(StreamRecords.string(message).withStreamKey(QUEUE_NAME));
+    }
+
+    //每个线程以不同的消费者名称加入消费者组g1
+    @Override
+    public synchronized void start(Handler handler) {
+        this.handler = handler;
+        createGroupIfAbsent();
+        consumerExecutor = Executors.newFixedThreadPool(consumerCount,
+                ThreadFactoryBuilder.create().setNamePrefix("seckill-order-").build());
+        for (int i = 1; i <= consumerCount; i++) {
+            Consumer consumer = Consumer.from(GROUP_NAME, NODE_ID + "-c" + i);
+            consumerExecutor.submit(() -> consume(consumer));
+        }
+        recoveryExecutor = Executors.newSingleThreadScheduledExecutor(
+                ThreadFactoryBuilder.create().setNamePrefix("seckill-order-recovery-").build());
+        recoveryExecutor.scheduleWithFixedDelay(this::recoverPendingOrders, 1, 1, TimeUnit.SECONDS);
+    }
+
+    //XGROUP CREATE stream.order g1 0 MKSTREAM，消费者组已存在时忽略
+    private void createGroupIfAbsent() {
+        try {
+            stringRedisTemplate.execute((RedisCallback<String>) connection -> connection.streamCommands()
+                    .xGroupCreate(QUEUE_NAME.getBytes(StandardCharsets.UTF_8), GROUP_NAME, ReadOffset.from("0"), true));
+        } catch (Exception e) {
+            //BUSYGROUP：消费者组已存在
+            if (e.getMessage() == null || !e.getMessage().contains("BUSYGROUP")) {
+                log.error("创建消费者组失败", e);
+            }
+        }
+    }
+
+    @PreDestroy
+    @Override
+    public synchronized void stop() {
+        if (consumerExecutor != null) {
+            consumerExecutor.shutdownNow();
+            recoveryExecutor.shutdownNow();
+            try {
+                consumerExecutor.awaitTermination(STOP_WAIT_SECONDS, TimeUnit.SECONDS);
+                recoveryExecutor.awaitTermination(STOP_WAIT_SECONDS, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            consumerExecutor = null;
+            removeIdleConsumers();
+        }
+    }
+
+    //消费者名称每次启动都不同，退出时删除本节点pendingList为空的消费者；还有未确认消息的消费者保留，由其它节点的恢复任务认领
+    private void removeIdleConsumers() {
+        try {
+            StreamInfo.XInfoConsumers consumers = stringRedisTemplate.opsForStream().consumers(QUEUE_NAME, GROUP_NAME);
+            for (int i = 0; i < consumers.size(); i++) {
+                StreamInfo.XInfoConsumer info = consumers.get(i);
+                if (info.consumerName().startsWith(NODE_ID) && info.pendingCount() == 0) {
+                    stringRedisTemplate.opsForStream().deleteConsumer(QUEUE_NAME, Consumer.from(GROUP_NAME, info.consumerName()));
+                }
+            }
+        } catch (Exception e) {
+            log.error("删除本节点的消费者失败", e);
+        }
+    }
+
+    @Override
+    public boolean isOverloaded() {
+        return orderStreamMonitor.isOverloaded();
+    }
+
+    private void consume(Consumer consumer) {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                //从消息队列中批量获取订单信息 XREADGROUP GROUP g1 cN COUNT n BLOCK 2000 STREAMS stream.order >
+                List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
+                        consumer,
+                        StreamReadOptions.empty().count(batchSize).block(Duration.ofSeconds(2)),
+                        StreamOffset.create(QUEUE_NAME, ReadOffset.lastConsumed())
+                );
+                //判断消息是否获取成功
+                if (list == null || list.isEmpty()) {
+                    //获取失败，说明没有消息，进入下一次循环
+                    continue;
+                }
+                //如果获取成功，批量下单
+                handleRecords(list);
+            } catch (InterruptedException e) {
+                //线程池关闭
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                //处理失败的消息留在pendingList中，由恢复任务认领重试
+                log.error("订单处理异常", e);
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    //一批消息交给handler批量落库，成功的部分用一次XACK批量确认
+    private void handleRecords(List<MapRecord<String, Object, Object>> list) throws InterruptedException {
+        Map<VoucherOrder, RecordId> ids = new IdentityHashMap<>(list.size());
+        List<VoucherOrder> voucherOrders = new ArrayList<>(list.size());
+        for (MapRecord<String, Object, Object> record : list) {
+            //解析消息中的订单信息
+            VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(record.getValue(), new VoucherOrder(), true);
+            voucherOrders.add(voucherOrder);
+            ids.put(voucherOrder, record.getId());
+        }
+        List<VoucherOrder> handled = handler.handle(voucherOrders);
+        if (!handled.isEmpty()) {
+            //ACK确认 XACK stream.order g1 id1 id2 ...
+            RecordId[] acked = handled.stream().map(ids::get).toArray(RecordId[]::new);
+            stringRedisTemplate.opsForStream().acknowledge(QUEUE_NAME, GROUP_NAME, acked);
+        }
+    }
+
+    //定时认领长时间未确认的消息并逐条重试，超过重试次数的消息转入死信队列
+    private void recoverPendingOrders() {
+        try {
+            //按消息id分页扫描，最旧的一页都在退避中时继续向后翻页，直到找到可以重试的消息或扫描完
+            Range<String> range = Range.unbounded();
+            while (true) {
+                //XPENDING stream.order g1 (lastId + n，按消息id从旧到新返回所有消费者的未确认消息
+                PendingMessages pendingMessages = stringRedisTemplate.opsForStream()
+                        .pending(QUEUE_NAME, GROUP_NAME, range, batchSize);
+                if (pendingMessages.isEmpty()) {
+                    return;
+                }
+                boolean due = false;
+                for (PendingMessage pending : pendingMessages) {
+                    if (recoverPending(pending)) {
+                        due = true;
+                    }
+                    if (Thread.currentThread().isInterrupted()) {
+                        return;
+                    }
+                }
+                if (due || pendingMessages.size() < batchSize) {
+                    return;
+                }
+                String lastId = pendingMessages.get(pendingMessages.size() - 1).getIdAsString();
+                range = Range.rightUnbounded(Range.Bound.exclusive(lastId));
+            }
+        } catch (Exception e) {
+            log.error("pendingList扫描异常", e);
+        }
+    }
+
+    /**
+     * 重试或转入死信队列一条未确认的消息
+     * @return 消息是否已经到了重试时间
+     */
+    private boolean recoverPending(PendingMessage pending) {
+        long deliveries = pending.getTotalDeliveryCount();
+        if (deliveries > maxRetries) {
+            //超过重试次数，转入死信队列
+            deadLetter(pending.getId(), deliveries);
+            return true;
+        }
+        //指数退避：第n次投递后至少空闲 base * 2^(n-1) 毫秒才重试
+        long backoff = Math.min(maxBackoffMillis, baseBackoffMillis << Math.min(deliveries - 1, 30));
+        if (pending.getElapsedTimeSinceLastDelivery().toMillis() < backoff) {
+            return false;
+        }
+        //XCLAIM stream.order g1 recovery backoff id，多个节点同时认领时只有一个能成功
+        List<MapRecord<String, Object, Object>> claimed = stringRedisTemplate.opsForStream()
+                .claim(QUEUE_NAME, GROUP_NAME, RECOVERY_CONSUMER, Duration.ofMillis(backoff), pending.getId());
+        if (claimed.isEmpty()) {
+            return true;
+        }
+        MapRecord<String, Object, Object> record = claimed.get(0);
+        try {
+            //逐条重试，避免一条坏消息拖垮整批
+            handleRecords(claimed);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.error("pendingList订单处理异常，id=" + record.getId() + "，已投递" + (deliveries + 1) + "次", e);
+        }
+        return true;
+    }
+
+    //把消息转入死信队列 stream.order.dlq，并确认原消息
+    private void deadLetter(RecordId id, long deliveries) {
+        List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream()
+                .range(QUEUE_NAME, Range.closed(id.getValue(), id.getValue()));
+        if (!records.isEmpty()) {
+            Map<Object, Object> values = new HashMap<>(records.get(0).getValue());
+            values.put("sourceId", id.getValue());
+            values.put("deliveries", String.valueOf(deliveries));
+            stringRedisTemplate.opsForStream().add(DEAD_LETTER_QUEUE, values);
+            handler.onDeadLetter(BeanUtil.fillBeanWithMap(records.get(0).getValue(), new VoucherOrder(), true));
+        }
+        stringRedisTemplate.opsForStream().acknowledge(QUEUE_NAME, GROUP_NAME, id);
+        log.error("订单消息重试" + deliveries + "次仍失败，已转入死信队列，id=" + id);
+    }
+
+    @Override
+    public int replayDeadLetters(int count) {
+        //XRANGE stream.order.dlq - + COUNT n
+        List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream()
+                .range(DEAD_LETTER_QUEUE, Range.unbounded(), Limit.limit().count(count));
+        for (MapRecord<String, Object, Object> record : records) {
+            //重新投递到订单队列，只保留订单字段
+            Map<Object, Object> values = new HashMap<>(record.getValue());
+            values.remove("sourceId");
+            values.remove("deliveries");
+            stringRedisTemplate.opsForStream().add(QUEUE_NAME, values);
+            stringRedisTemplate.opsForStream().delete(DEAD_LETTER_QUEUE, record.getId());
+        }
+        return records.size();
+    }
+}
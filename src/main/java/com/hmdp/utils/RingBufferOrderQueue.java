@@ -0,0 +1,520 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.thread.ThreadFactoryBuilder;
+import com.hmdp.entity.VoucherOrder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 单节点的内存订单队列
+ * 预分配固定容量的环形数组，订单字段直接写入槽位，发布时没有对象分配；多个生产者用CAS认领序号，单个消费者批量读取。
+ * 每个订单发布前先追加写入本地日志，处理完成后再追加确认记录，启动时重放日志恢复未处理的订单并压缩日志，
+ * 运行中日志超过 compact-threshold-bytes 时同样压缩，只保留未确认的订单和死信。
+ * 日志按 fsync-interval-millis 定时刷盘，进程崩溃不丢消息，机器掉电最多丢失一个刷盘间隔内的消息
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "hmdp.seckill.queue.type", havingValue = "ring-buffer")
+public class RingBufferOrderQueue implements OrderQueue {
+
+    //日志记录类型：发布、确认、转入死信
+    private static final byte PUBLISHED = 'P';
+    private static final byte ACKED = 'A';
+    private static final byte DEAD = 'D';
+
+    //日志记录定长：类型(1) + 订单id(8) + 用户id(8) + 优惠券id(8)
+    private static final int RECORD_SIZE = 25;
+
+    //消费者没有消息可读时的休眠时间
+    private static final long IDLE_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    //生产者写日志用的缓冲区，每个线程复用一个
+    private static final ThreadLocal<ByteBuffer> RECORD_BUFFER = ThreadLocal.withInitial(() -> ByteBuffer.allocate(RECORD_SIZE));
+
+    //容量，必须是2的幂
+    @Value("${hmdp.seckill.queue.ring-buffer.capacity:65536}")
+    private int capacity;
+
+    @Value("${hmdp.seckill.queue.ring-buffer.journal:data/order-queue.journal}")
+    private String journalPath;
+
+    //日志刷盘间隔，0表示只写入操作系统缓存
+    @Value("${hmdp.seckill.queue.ring-buffer.fsync-interval-millis:100}")
+    private long fsyncIntervalMillis;
+
+    //日志超过该大小时压缩
+    @Value("${hmdp.seckill.queue.ring-buffer.compact-threshold-bytes:16777216}")
+    private long compactThresholdBytes;
+
+    @Value("${hmdp.seckill.consumer.batch-size:50}")
+    private int batchSize;
+
+    @Value("${hmdp.seckill.recovery.max-retries:5}")
+    private long maxRetries;
+
+    @Value("${hmdp.seckill.recovery.base-backoff-millis:5000}")
+    private long baseBackoffMillis;
+
+    @Value("${hmdp.seckill.recovery.max-backoff-millis:300000}")
+    private long maxBackoffMillis;
+
+    private int mask;
+
+    //槽位中的订单字段
+    private long[] orderIds;
+    private long[] userIds;
+    private long[] voucherIds;
+
+    //槽位中已发布的序号，等于当前读取的序号时槽位才可读
+    private AtomicLongArray published;
+
+    //生产者已认领的最大序号
+    private final AtomicLong claimed = new AtomicLong(-1);
+
+    //消费者已读取的最大序号，生产者不能覆盖未读取的槽位
+    private final AtomicLong consumed = new AtomicLong(-1);
+
+    private Path journalFile;
+
+    //压缩时替换为新文件
+    private volatile FileChannel journal;
+
+    //追加写日志时持有读锁，压缩替换日志文件时持有写锁
+    private final ReadWriteLock journalLock = new ReentrantReadWriteLock();
+
+    //上次压缩后的日志大小，未确认的订单很多时避免反复压缩
+    private long compactedSize;
+
+    //启动时从日志中恢复的未处理订单，开始消费后重新入队
+    private List<long[]> recovered = Collections.emptyList();
+
+    //处理失败等待重试的订单，只在恢复线程中读取
+    private final Queue<Retry> retries = new ConcurrentLinkedQueue<>();
+
+    private final Queue<VoucherOrder> deadLetters = new ConcurrentLinkedQueue<>();
+
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    private Handler handler;
+
+    private ExecutorService consumerExecutor;
+
+    private ScheduledExecutorService recoveryExecutor;
+
+    @PostConstruct
+    private void init() throws IOException {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalStateException("hmdp.seckill.queue.ring-buffer.capacity必须是2的幂：" + capacity);
+        }
+        mask = capacity - 1;
+        orderIds = new long[capacity];
+        userIds = new long[capacity];
+        voucherIds = new long[capacity];
+        published = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            published.set(i, -1);
+        }
+        Path path = Paths.get(journalPath);
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        journalFile = path;
+        recovered = compactJournal(path);
+        journal = openJournal(path);
+        compactedSize = journal.size();
+        if (!recovered.isEmpty()) {
+            log.info("从订单日志中恢复" + recovered.size() + "个未处理的订单，死信" + deadLetters.size() + "个");
+        }
+    }
+
+    //重放日志，只保留未处理的订单和死信，写入新文件后替换原日志
+    private List<long[]> compactJournal(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return Collections.emptyList();
+        }
+        Map<Long, long[]> live = replay(ByteBuffer.wrap(Files.readAllBytes(path)), new LinkedHashMap<>());
+        List<long[]> pending = new ArrayList<>();
+        for (long[] r : live.values()) {
+            if (r[0] == DEAD) {
+                deadLetters.add(toOrder(r[1], r[2], r[3]));
+            } else {
+                pending.add(r);
+            }
+        }
+        rewrite(path, live.values());
+        return pending;
+    }
+
+    /**
+     * 按顺序重放日志记录，得到每个未确认订单的最后一条记录
+     * @param live 订单id -> 最后一条记录，重放结果写入其中
+     * @return live
+     */
+    static Map<Long, long[]> replay(ByteBuffer buffer, Map<Long, long[]> live) {
+        //最后一条记录可能只写了一半，忽略
+        while (buffer.remaining() >= RECORD_SIZE) {
+            byte type = buffer.get();
+            long[] record = {type, buffer.getLong(), buffer.getLong(), buffer.getLong()};
+            live.remove(record[1]);
+            if (type != ACKED) {
+                live.put(record[1], record);
+            }
+        }
+        return live;
+    }
+
+    //把记录写入临时文件并刷盘，再原子地替换原日志
+    static void rewrite(Path path, Collection<long[]> records) throws IOException {
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+            for (long[] r : records) {
+                record.clear();
+                record.put((byte) r[0]).putLong(r[1]).putLong(r[2]).putLong(r[3]).flip();
+                while (record.hasRemaining()) {
+                    out.write(record);
+                }
+            }
+            out.force(true);
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static FileChannel openJournal(Path path) throws IOException {
+        return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    //日志超过阈值时压缩：先不加锁重放已写完的部分，再加写锁重放新追加的尾部并替换文件，生产者只在替换时等待
+    private void compactIfNeeded() {
+        try {
+            long size = journal.size();
+            if (size < Math.max(compactThresholdBytes, compactedSize * 2)) {
+                return;
+            }
+            //每次写入都是整条记录，已有长度按记录对齐的部分已经写完
+            long prefix = size - size % RECORD_SIZE;
+            Map<Long, long[]> live = new LinkedHashMap<>();
+            try (FileChannel in = FileChannel.open(journalFile, StandardOpenOption.READ)) {
+                replay(read(in, 0, prefix), live);
+                journalLock.writeLock().lock();
+                try {
+                    FileChannel current = journal;
+                    replay(read(in, prefix, current.size() - prefix), live);
+                    rewrite(journalFile, live.values());
+                    journal = openJournal(journalFile);
+                    current.close();
+                    compactedSize = journal.size();
+                } finally {
+                    journalLock.writeLock().unlock();
+                }
+            }
+            log.info("订单日志已压缩，" + size + " -> " + compactedSize + "字节");
+        } catch (IOException e) {
+            log.error("压缩订单日志失败", e);
+        }
+    }
+
+    private static ByteBuffer read(FileChannel in, long position, long length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) length);
+        while (buffer.hasRemaining()) {
+            if (in.read(buffer, position + buffer.position()) < 0) {
+                break;
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    @Override
+    public String scriptStreamKey() {
+        return null;
+    }
+
+    @Override
+    public void publish(long orderId, long userId, long voucherId) {
+        //先写日志，崩溃后可以从日志中恢复
+        ByteBuffer buffer = RECORD_BUFFER.get();
+        buffer.clear();
+        buffer.put(PUBLISHED).putLong(orderId).putLong(userId).putLong(voucherId).flip();
+        appendJournal(buffer);
+        enqueue(orderId, userId, voucherId);
+    }
+
+    //认领序号并写入槽位，队列已满时等待消费者
+    private void enqueue(long orderId, long userId, long voucherId) {
+        long sequence;
+        while (true) {
+            long current = claimed.get();
+            sequence = current + 1;
+            if (sequence - capacity > consumed.get()) {
+                //槽位还未被消费者读取
+                LockSupport.parkNanos(1);
+                continue;
+            }
+            if (claimed.compareAndSet(current, sequence)) {
+                break;
+            }
+        }
+        int index = (int) (sequence & mask);
+        orderIds[index] = orderId;
+        userIds[index] = userId;
+        voucherIds[index] = voucherId;
+        //发布槽位，保证消费者看到序号时也能看到上面写入的字段
+        published.lazySet(index, sequence);
+    }
+
+    @Override
+    public void start(Handler handler) {
+        if (!running.compareAndSet(false, true)) {
+            return;
+        }
+        this.handler = handler;
+        consumerExecutor = Executors.newSingleThreadExecutor(
+                ThreadFactoryBuilder.create().setNamePrefix("seckill-order-").build());
+        consumerExecutor.submit(this::consume);
+        recoveryExecutor = Executors.newSingleThreadScheduledExecutor(
+                ThreadFactoryBuilder.create().setNamePrefix("seckill-order-recovery-").build());
+        recoveryExecutor.scheduleWithFixedDelay(this::retryFailedOrders, 1, 1, TimeUnit.SECONDS);
+        if (fsyncIntervalMillis > 0) {
+            recoveryExecutor.scheduleWithFixedDelay(this::fsync, fsyncIntervalMillis, fsyncIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+        recoveryExecutor.scheduleWithFixedDelay(this::compactIfNeeded, 1, 1, TimeUnit.SECONDS);
+        //恢复的订单已经在日志中，只需重新入队
+        for (long[] r : recovered) {
+            enqueue(r[1], r[2], r[3]);
+        }
+        recovered = Collections.emptyList();
+    }
+
+    @PreDestroy
+    @Override
+    public void stop() {
+        if (!running.compareAndSet(true, false)) {
+            return;
+        }
+        //消费者处理完当前批次并写入确认记录后退出，恢复线程执行完当前任务后不再调度
+        consumerExecutor.shutdown();
+        recoveryExecutor.shutdown();
+        try {
+            if (!consumerExecutor.awaitTermination(5, TimeUnit.SECONDS)) {
+                consumerExecutor.shutdownNow();
+                consumerExecutor.awaitTermination(1, TimeUnit.SECONDS);
+            }
+            if (!recoveryExecutor.awaitTermination(5, TimeUnit.SECONDS)) {
+                recoveryExecutor.shutdownNow();
+                recoveryExecutor.awaitTermination(1, TimeUnit.SECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        //工作线程都已退出后再关闭日志，此后生产者写日志会失败并归还库存
+        journalLock.writeLock().lock();
+        try {
+            journal.force(true);
+            journal.close();
+        } catch (IOException e) {
+            log.error("关闭订单日志失败", e);
+        } finally {
+            journalLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean isOverloaded() {
+        //留出1/8的容量，避免生产者在队列满时等待
+        return claimed.get() - consumed.get() > capacity - (capacity >> 3);
+    }
+
+    private void consume() {
+        List<VoucherOrder> batch = new ArrayList<>(batchSize);
+        ByteBuffer acks = ByteBuffer.allocate(batchSize * RECORD_SIZE);
+        long next = consumed.get() + 1;
+        while (running.get() && !Thread.currentThread().isInterrupted()) {
+            //读取连续已发布的槽位
+            while (batch.size() < batchSize && published.get((int) (next & mask)) == next) {
+                int index = (int) (next & mask);
+                batch.add(toOrder(orderIds[index], userIds[index], voucherIds[index]));
+                next++;
+            }
+            if (batch.isEmpty()) {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+                continue;
+            }
+            //槽位中的字段已经复制出来，生产者可以复用这些槽位
+            consumed.set(next - 1);
+            List<VoucherOrder> handled;
+            try {
+                handled = handler.handle(batch);
+            } catch (InterruptedException e) {
+                //未确认的订单在下次启动时从日志恢复
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                log.error("订单处理异常", e);
+                handled = Collections.emptyList();
+            }
+            acks.clear();
+            for (VoucherOrder voucherOrder : handled) {
+                putRecord(acks, ACKED, voucherOrder);
+            }
+            acks.flip();
+            try {
+                appendJournal(acks);
+            } catch (IllegalStateException e) {
+                //确认记录丢失只会导致重启后重复处理，由唯一索引去重
+                log.error("写入订单确认记录失败", e);
+            }
+            if (handled.size() < batch.size()) {
+                //处理失败的订单交给恢复线程重试
+                Set<VoucherOrder> succeeded = Collections.newSetFromMap(new IdentityHashMap<>());
+                succeeded.addAll(handled);
+                long retryAt = System.currentTimeMillis() + baseBackoffMillis;
+                for (VoucherOrder voucherOrder : batch) {
+                    if (!succeeded.contains(voucherOrder)) {
+                        retries.add(new Retry(voucherOrder, 1, retryAt));
+                    }
+                }
+            }
+            batch.clear();
+        }
+    }
+
+    //逐条重试处理失败的订单，超过重试次数的订单转入死信
+    private void retryFailedOrders() {
+        long now = System.currentTimeMillis();
+        for (int n = retries.size(); n > 0; n--) {
+            Retry retry = retries.poll();
+            if (retry == null) {
+                break;
+            }
+            if (retry.retryAt > now) {
+                retries.add(retry);
+                continue;
+            }
+            boolean success = false;
+            try {
+                success = !handler.handle(Collections.singletonList(retry.order)).isEmpty();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                log.error("订单重试异常，id=" + retry.order.getId() + "，已投递" + (retry.deliveries + 1) + "次", e);
+            }
+            if (success) {
+                appendRecord(ACKED, retry.order);
+            } else if (retry.deliveries + 1 > maxRetries) {
+                appendRecord(DEAD, retry.order);
+                deadLetters.add(retry.order);
+                handler.onDeadLetter(retry.order);
+                log.error("订单重试" + (retry.deliveries + 1) + "次仍失败，已转入死信，id=" + retry.order.getId());
+            } else {
+                //指数退避：第n次投递后至少等待 base * 2^(n-1) 毫秒才重试
+                long deliveries = retry.deliveries + 1;
+                long backoff = Math.min(maxBackoffMillis, baseBackoffMillis << Math.min(deliveries - 1, 30));
+                retries.add(new Retry(retry.order, deliveries, now + backoff));
+            }
+        }
+    }
+
+    @Override
+    public int replayDeadLetters(int count) {
+        int replayed = 0;
+        VoucherOrder voucherOrder;
+        while (replayed < count && (voucherOrder = deadLetters.poll()) != null) {
+            publish(voucherOrder.getId(), voucherOrder.getUserId(), voucherOrder.getVoucherId());
+            replayed++;
+        }
+        return replayed;
+    }
+
+    private void fsync() {
+        journalLock.readLock().lock();
+        try {
+            journal.force(false);
+        } catch (IOException e) {
+            log.error("订单日志刷盘失败", e);
+        } finally {
+            journalLock.readLock().unlock();
+        }
+    }
+
+    private void appendRecord(byte type, VoucherOrder voucherOrder) {
+        ByteBuffer buffer = RECORD_BUFFER.get();
+        buffer.clear();
+        putRecord(buffer, type, voucherOrder);
+        buffer.flip();
+        appendJournal(buffer);
+    }
+
+    private void appendJournal(ByteBuffer buffer) {
+        journalLock.readLock().lock();
+        try {
+            while (buffer.hasRemaining()) {
+                journal.write(buffer);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("写入订单日志失败", e);
+        } finally {
+            journalLock.readLock().unlock();
+        }
+    }
+
+    private static void putRecord(ByteBuffer buffer, byte type, VoucherOrder voucherOrder) {
+        buffer.put(type).putLong(voucherOrder.getId()).putLong(voucherOrder.getUserId()).putLong(voucherOrder.getVoucherId());
+    }
+
+    private static VoucherOrder toOrder(long orderId, long userId, long voucherId) {
+        VoucherOrder voucherOrder = new VoucherOrder();
+        voucherOrder.setId(orderId);
+        voucherOrder.setUserId(userId);
+        voucherOrder.setVoucherId(voucherId);
+        return voucherOrder;
+    }
+
+    private static class Retry {
+        private final VoucherOrder order;
+        //已投递次数
+        private final long deliveries;
+        private final long retryAt;
+
+        Retry(VoucherOrder order, long deliveries, long retryAt) {
+            this.order = order;
+            this.deliveries = deliveries;
+            this.retryAt = retryAt;
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.hmdp.constant.RedisConstants.SECKILL_ADMISSION_NODES_KEY;
+import static com.hmdp.constant.RedisConstants.SECKILL_STOCK_KEY;
+
+/**
+ * 秒杀准入控制
+ * 每个节点为每张秒杀券维护一个本地令牌桶，拿不到令牌的请求直接返回，不访问redis。
+ * 全局预算 = 剩余库存 * stockFactor（每秒），由当前存活的节点平分；
+ * 各节点每秒在redis中登记心跳，并根据剩余库存和存活节点数重新计算本地令牌桶的速率和容量
+ */
+@Slf4j
+@Component
+public class SeckillAdmission {
+
+    private static final String NODE_ID = UUID.randomUUID().toString(true);
+
+    //心跳超过该时间未刷新的节点视为下线
+    private static final long NODE_EXPIRE_MILLIS = 3000;
+
+    //本地令牌桶超过该时间无请求则移除
+    private static final long IDLE_EXPIRE_MILLIS = 60000;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private SeckillStockShards seckillStockShards;
+
+    @Resource
+    private OrderQueue orderQueue;
+
+    @Value("${hmdp.seckill.admission.enabled:true}")
+    private boolean enabled;
+
+    //全局每秒放行的请求数为剩余库存的多少倍，大于1是为了给重复下单等失败请求留出余量
+    @Value("${hmdp.seckill.admission.stock-factor:2}")
+    private double stockFactor;
+
+    //单个节点每秒放行的最小请求数，保证售罄后仍有少量请求能够确认库存
+    @Value("${hmdp.seckill.admission.min-rate:10}")
+    private long minRate;
+
+    //优惠券id -> 本地令牌桶
+    private final Map<Long, TokenBucket> buckets = new ConcurrentHashMap<>();
+
+    //最近一次心跳时统计的存活节点数
+    private volatile long liveNodes = 1;
+
+    /**
+     * 尝试获取一个秒杀令牌
+     * @param voucherId 优惠券id
+     * @return true:放行，false:请求过多或订单积压过多，需要稍后重试
+     */
+    public boolean tryAcquire(Long voucherId) {
+        //订单消息积压超过阈值，继续放行只会让下单结果越来越晚，直接拒绝
+        if (orderQueue.isOverloaded()) {
+            return false;
+        }
+        if (!enabled) {
+            return true;
+        }
+        TokenBucket bucket = buckets.get(voucherId);
+        if (bucket == null) {
+            //先在map外查询redis，不在computeIfAbsent中持有桶锁等待网络往返；并发创建时使用先放入的桶
+            TokenBucket created = new TokenBucket(rateOf(remainingStock(voucherId)));
+            bucket = buckets.putIfAbsent(voucherId, created);
+            if (bucket == null) {
+                bucket = created;
+            }
+        }
+        return bucket.tryAcquire();
+    }
+
+    /**
+     * 刷新心跳，并按最新的剩余库存和存活节点数调整各令牌桶
+     */
+    @Scheduled(fixedRate = 1000)
+    public void refresh() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            long now = System.currentTimeMillis();
+            List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                conn.zAdd(SECKILL_ADMISSION_NODES_KEY, now, NODE_ID);
+                conn.zRemRangeByScore(SECKILL_ADMISSION_NODES_KEY, 0, now - NODE_EXPIRE_MILLIS);
+                conn.zCard(SECKILL_ADMISSION_NODES_KEY);
+                return null;
+            });
+            liveNodes = Math.max(1L, (Long) results.get(2));
+
+            List<Long> voucherIds = new ArrayList<>(buckets.keySet());
+            for (Long voucherId : voucherIds) {
+                TokenBucket bucket = buckets.get(voucherId);
+                if (bucket == null) {
+                    continue;
+                }
+                if (now - bucket.lastAcquireMillis > IDLE_EXPIRE_MILLIS) {
+                    buckets.remove(voucherId, bucket);
+                    continue;
+                }
+                bucket.setRate(rateOf(remainingStock(voucherId)));
+            }
+        } catch (Exception e) {
+            log.error("刷新秒杀准入令牌桶失败", e);
+        }
+    }
+
+    //本节点每秒放行的请求数
+    private long rateOf(long remainingStock) {
+        return Math.max(minRate, (long) (remainingStock * stockFactor / liveNodes));
+    }
+
+    //redis中的剩余库存，分片模式下为各分片之和
+    private long remainingStock(Long voucherId) {
+        int shards = seckillStockShards.shardCount(voucherId);
+        if (shards <= 1) {
+            String stock = stringRedisTemplate.opsForValue().get(SECKILL_STOCK_KEY + voucherId);
+            return stock == null ? 0 : Math.max(0, Long.parseLong(stock));
+        }
+        List<String> keys = new ArrayList<>(shards);
+        for (int i = 0; i < shards; i++) {
+            keys.add(SeckillStockShards.stockKey(voucherId, i));
+        }
+        long total = 0;
+        for (String stock : stringRedisTemplate.opsForValue().multiGet(keys)) {
+            if (stock != null) {
+                total += Math.max(0, Long.parseLong(stock));
+            }
+        }
+        return total;
+    }
+
+    /**
+     * 基于GCRA算法的无锁令牌桶，容量和每秒生成的令牌数相同
+     * 只用一个AtomicLong记录理论到达时间，获取令牌时没有对象分配
+     */
+    private static class TokenBucket {
+        //理论到达时间
+        private final AtomicLong tat = new AtomicLong(System.nanoTime());
+        //生成一个令牌的间隔
+        private volatile long intervalNanos;
+        //允许的突发量对应的时间
+        private volatile long burstNanos;
+
+        private volatile long lastAcquireMillis = System.currentTimeMillis();
+
+        TokenBucket(long ratePerSecond) {
+            setRate(ratePerSecond);
+        }
+
+        void setRate(long ratePerSecond) {
+            long interval = TimeUnit.SECONDS.toNanos(1) / ratePerSecond;
+            this.intervalNanos = Math.max(1, interval);
+            this.burstNanos = this.intervalNanos * ratePerSecond;
+        }
+
+        boolean tryAcquire() {
+            lastAcquireMillis = System.currentTimeMillis();
+            long interval = intervalNanos;
+            long burst = burstNanos;
+            while (true) {
+                long now = System.nanoTime();
+                long current = tat.get();
+                long next = Math.max(current, now) + interval;
+                if (next - now > burst) {
+                    //令牌已用完
+                    return false;
+                }
+                if (tat.compareAndSet(current, next)) {
+                    return true;
+                }
+            }
+        }
+    }
+}
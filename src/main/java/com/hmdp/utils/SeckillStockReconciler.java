@@ -0,0 +1,251 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.service.IVoucherOrderService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.hmdp.constant.RedisConstants.*;
+
+/**
+ * redis秒杀库存与数据库的对账任务
+ * <p>
+ * 秒杀脚本原子地扣减redis库存并记录购买用户，数据库在一个事务中扣减库存并插入订单，因此对每张秒杀券：
+ * <pre>
+ * redis库存 + 购买用户数 = 初始库存 = 数据库库存 + 数据库订单数
+ * </pre>
+ * 按voucher_id游标分页扫描秒杀券，每页用一条分组查询统计订单数，用一次pipeline读取redis，
+ * 比较上式两边。差异连续两次对账都存在才视为漂移，排除消息队列中订单和并发请求造成的瞬时差异
+ * <p>
+ * 每个对账间隔只有抢到 seckill:reconcile:lock 的一个节点执行，上一次的差值保存在redis中，
+ * 避免多个节点各自修复同一个差值
+ */
+@Slf4j
+@Component
+public class SeckillStockReconciler {
+
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private SeckillStockShards seckillStockShards;
+
+    @Value("${hmdp.seckill.reconcile.enabled:true}")
+    private boolean enabled;
+
+    //发现漂移时是否修复redis库存，关闭时只报告
+    @Value("${hmdp.seckill.reconcile.repair:false}")
+    private boolean repair;
+
+    @Value("${hmdp.seckill.reconcile.page-size:100}")
+    private int pageSize;
+
+    @Value("${hmdp.seckill.reconcile.interval-millis:300000}")
+    private long intervalMillis;
+
+    //上一次对账发现的redis库存差值，优惠券id -> 应增加的库存
+    private Map<Long, Long> lastDiffs = new HashMap<>();
+
+    @Scheduled(initialDelayString = "${hmdp.seckill.reconcile.interval-millis:300000}",
+            fixedDelayString = "${hmdp.seckill.reconcile.interval-millis:300000}")
+    public void reconcile() {
+        if (!enabled) {
+            return;
+        }
+        //同一个对账间隔内只有一个节点执行，锁不主动释放，到期后下一个间隔重新竞争
+        Boolean first = stringRedisTemplate.opsForValue()
+                .setIfAbsent(SECKILL_RECONCILE_LOCK_KEY, "1", intervalMillis, TimeUnit.MILLISECONDS);
+        if (!Boolean.TRUE.equals(first)) {
+            return;
+        }
+        try {
+            //上一次可能由其他节点执行，从redis读取上一次的差值
+            lastDiffs = loadLastDiffs();
+            Map<Long, Long> diffs = new HashMap<>();
+            long lastId = 0;
+            while (true) {
+                //游标分页 select * from tb_seckill_voucher where voucher_id > ? order by voucher_id limit n
+                List<SeckillVoucher> vouchers = seckillVoucherService.query()
+                        .gt("voucher_id", lastId)
+                        .orderByAsc("voucher_id")
+                        .last("LIMIT " + pageSize)
+                        .list();
+                if (vouchers.isEmpty()) {
+                    break;
+                }
+                reconcilePage(vouchers, diffs);
+                lastId = vouchers.get(vouchers.size() - 1).getVoucherId();
+            }
+            saveLastDiffs(diffs);
+        } catch (Exception e) {
+            log.error("秒杀库存对账异常", e);
+        }
+    }
+
+    private Map<Long, Long> loadLastDiffs() {
+        Map<Object, Object> entries = stringRedisTemplate.opsForHash().entries(SECKILL_RECONCILE_DIFF_KEY);
+        Map<Long, Long> diffs = new HashMap<>(entries.size());
+        entries.forEach((voucherId, diff) ->
+                diffs.put(Long.valueOf((String) voucherId), Long.valueOf((String) diff)));
+        return diffs;
+    }
+
+    private void saveLastDiffs(Map<Long, Long> diffs) {
+        Map<String, String> entries = new HashMap<>(diffs.size());
+        diffs.forEach((voucherId, diff) -> entries.put(voucherId.toString(), diff.toString()));
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            conn.del(SECKILL_RECONCILE_DIFF_KEY);
+            if (!entries.isEmpty()) {
+                conn.hMSet(SECKILL_RECONCILE_DIFF_KEY, entries);
+                //超过两个间隔没有对账时，之前的差值不再用于确认
+                conn.pExpire(SECKILL_RECONCILE_DIFF_KEY, intervalMillis * 2);
+            }
+            return null;
+        });
+    }
+
+    private void reconcilePage(List<SeckillVoucher> vouchers, Map<Long, Long> diffs) {
+        List<Long> voucherIds = vouchers.stream().map(SeckillVoucher::getVoucherId).collect(Collectors.toList());
+        // 1.统计数据库订单数 select voucher_id, count(*) from tb_voucher_order where voucher_id in (...) group by voucher_id
+        Map<Long, Long> orderCounts = new HashMap<>(voucherIds.size());
+        voucherOrderService.listMaps(new QueryWrapper<VoucherOrder>()
+                .select("voucher_id", "COUNT(*) AS total")
+                .in("voucher_id", voucherIds)
+                .groupBy("voucher_id"))
+                .forEach(row -> orderCounts.put(
+                        ((Number) row.get("voucher_id")).longValue(),
+                        ((Number) row.get("total")).longValue()));
+        // 2.一次pipeline读取所有分片的redis库存和购买用户数
+        int[] shardCounts = new int[voucherIds.size()];
+        for (int i = 0; i < voucherIds.size(); i++) {
+            shardCounts[i] = seckillStockShards.shardCount(voucherIds.get(i));
+        }
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (int i = 0; i < voucherIds.size(); i++) {
+                Long voucherId = voucherIds.get(i);
+                if (shardCounts[i] <= 1) {
+                    conn.get(SECKILL_STOCK_KEY + voucherId);
+                    conn.sCard(SECKILL_ORDER_KEY + voucherId);
+                    continue;
+                }
+                for (int shard = 0; shard < shardCounts[i]; shard++) {
+                    conn.get(SeckillStockShards.stockKey(voucherId, shard));
+                    conn.sCard(SeckillStockShards.orderKey(voucherId, shard));
+                }
+            }
+            return null;
+        });
+        // 3.逐个比较
+        int index = 0;
+        for (int i = 0; i < vouchers.size(); i++) {
+            SeckillVoucher voucher = vouchers.get(i);
+            Long voucherId = voucher.getVoucherId();
+            int shards = Math.max(1, shardCounts[i]);
+            long[] shardStocks = new long[shards];
+            long redisStock = 0;
+            long buyers = 0;
+            boolean missing = false;
+            for (int shard = 0; shard < shards; shard++) {
+                String stock = (String) results.get(index++);
+                buyers += (Long) results.get(index++);
+                if (stock == null) {
+                    missing = true;
+                    continue;
+                }
+                shardStocks[shard] = Long.parseLong(stock);
+                redisStock += shardStocks[shard];
+            }
+            if (missing) {
+                //没有预热到redis或已经清理的秒杀券不参与对账
+                continue;
+            }
+            long dbOrders = orderCounts.getOrDefault(voucherId, 0L);
+            long total = voucher.getStock() + dbOrders;
+            if (buyers < dbOrders) {
+                //购买用户集合丢失了数据库中的订单，无法推算正确的redis库存，只报告
+                log.warn("秒杀对账：购买用户集合少于数据库订单 voucherId={} buyers={} dbOrders={}",
+                        voucherId, buyers, dbOrders);
+                continue;
+            }
+            long diff = total - buyers - redisStock;
+            if (diff == 0) {
+                continue;
+            }
+            diffs.put(voucherId, diff);
+            if (!Long.valueOf(diff).equals(lastDiffs.get(voucherId))) {
+                //第一次发现差异，下次对账再确认
+                continue;
+            }
+            log.warn("秒杀对账：redis库存漂移 voucherId={} redisStock={} buyers={} dbStock={} dbOrders={} diff={}",
+                    voucherId, redisStock, buyers, voucher.getStock(), dbOrders, diff);
+            if (repair) {
+                repairStock(voucherId, shardStocks, diff);
+                diffs.remove(voucherId);
+            }
+        }
+    }
+
+    //按差值增减redis库存，使用增量修改，不覆盖并发请求的扣减
+    private void repairStock(Long voucherId, long[] shardStocks, long diff) {
+        if (shardStocks.length == 1) {
+            stringRedisTemplate.opsForValue().increment(SECKILL_STOCK_KEY + voucherId, diff);
+            log.warn("秒杀对账：已修复redis库存 voucherId={} delta={}", voucherId, diff);
+            return;
+        }
+        List<long[]> deltas = new ArrayList<>();
+        if (diff > 0) {
+            //库存少了，补到第一个分片
+            deltas.add(new long[]{0, diff});
+        } else {
+            //库存多了，从库存最多的分片开始扣减，不把分片扣成负数
+            long remaining = -diff;
+            while (remaining > 0) {
+                int max = 0;
+                for (int shard = 1; shard < shardStocks.length; shard++) {
+                    if (shardStocks[shard] > shardStocks[max]) {
+                        max = shard;
+                    }
+                }
+                long take = Math.min(remaining, shardStocks[max]);
+                if (take <= 0) {
+                    break;
+                }
+                shardStocks[max] -= take;
+                remaining -= take;
+                deltas.add(new long[]{max, -take});
+            }
+        }
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (long[] delta : deltas) {
+                conn.incrBy(SeckillStockShards.stockKey(voucherId, (int) delta[0]), delta[1]);
+            }
+            return null;
+        });
+        log.warn("秒杀对账：已修复redis分片库存 voucherId={} delta={}", voucherId, diff);
+    }
+}
@@ -0,0 +1,159 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.hmdp.constant.RedisConstants.*;
+
+/**
+ * 秒杀库存分片
+ * 热点秒杀券的库存可以拆分到N个子key，每个分片的库存key和购买用户key使用相同的hash tag，
+ * 保证同一分片的两个key落在同一个slot，不同分片分散到不同slot
+ * <pre>
+ * seckill:stock:{voucherId:i}   第i个分片的库存
+ * seckill:order:{voucherId:i}   主分片为i的用户中已购买的用户
+ * seckill:window:{voucherId:i}  秒杀时间窗口，hash结构，begin/end为毫秒时间戳
+ * seckill:shards:voucherId      分片数，不存在表示不分片
+ * </pre>
+ */
+@Component
+public class SeckillStockShards implements MessageListener {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    //本地最多缓存多少个优惠券的分片数，超过时淘汰最不常用的，优惠券id来自请求参数，必须有上限
+    private static final int MAX_CACHED = 10000;
+
+    //优惠券id -> 分片数，分片数在创建秒杀券后不再变化，定期过期兜底丢失的消息
+    private final Cache<Long, Integer> shardCounts = Caffeine.newBuilder()
+            .maximumSize(MAX_CACHED)
+            .expireAfterWrite(Duration.ofMinutes(10))
+            .build();
+
+    @PostConstruct
+    private void init() {
+        //新建秒杀券或补货时清除本地缓存的分片数
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(SECKILL_RESTOCK_CHANNEL));
+    }
+
+    public static String stockKey(Long voucherId, int shard) {
+        return SECKILL_STOCK_KEY + "{" + voucherId + ":" + shard + "}";
+    }
+
+    public static String orderKey(Long voucherId, int shard) {
+        return SECKILL_ORDER_KEY + "{" + voucherId + ":" + shard + "}";
+    }
+
+    public static String windowKey(Long voucherId, int shard) {
+        return SECKILL_WINDOW_KEY + "{" + voucherId + ":" + shard + "}";
+    }
+
+    /**
+     * 用户的主分片，用户的一人一单记录始终保存在主分片的购买用户key中
+     */
+    public static int homeShard(Long userId, int shards) {
+        return (int) Math.floorMod(userId, (long) shards);
+    }
+
+    /**
+     * 查询优惠券的库存分片数
+     * @param voucherId 优惠券id
+     * @return 分片数，1表示不分片
+     */
+    public int shardCount(Long voucherId) {
+        return shardCounts.get(voucherId, id -> {
+            String shards = stringRedisTemplate.opsForValue().get(SECKILL_SHARDS_KEY + id);
+            return StrUtil.isBlank(shards) ? 1 : Integer.parseInt(shards);
+        });
+    }
+
+    /**
+     * 初始化秒杀库存和秒杀时间窗口，时间窗口保存在库存key旁边，由秒杀脚本校验
+     * @param voucherId 优惠券id
+     * @param stock 总库存
+     * @param shards 分片数，不大于1时不分片
+     * @param beginMillis 秒杀开始时间戳
+     * @param endMillis 秒杀结束时间戳
+     */
+    public void initStock(Long voucherId, int stock, int shards, long beginMillis, long endMillis) {
+        Map<String, String> window = new HashMap<>(2);
+        window.put("begin", String.valueOf(beginMillis));
+        window.put("end", String.valueOf(endMillis));
+        if (shards <= 1) {
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                conn.set(SECKILL_STOCK_KEY + voucherId, String.valueOf(stock));
+                conn.hMSet(SECKILL_WINDOW_KEY + voucherId, window);
+                return null;
+            });
+            return;
+        }
+        int[] split = split(stock, shards);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (int i = 0; i < shards; i++) {
+                conn.set(stockKey(voucherId, i), String.valueOf(split[i]));
+                conn.hMSet(windowKey(voucherId, i), window);
+            }
+            conn.set(SECKILL_SHARDS_KEY + voucherId, String.valueOf(shards));
+            return null;
+        });
+    }
+
+    /**
+     * 增加秒杀库存，分片模式下平均分配到各个分片
+     * @param voucherId 优惠券id
+     * @param count 增加的库存
+     */
+    public void addStock(Long voucherId, int count) {
+        int shards = shardCount(voucherId);
+        if (shards <= 1) {
+            stringRedisTemplate.opsForValue().increment(SECKILL_STOCK_KEY + voucherId, count);
+            return;
+        }
+        int[] split = split(count, shards);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (int i = 0; i < shards; i++) {
+                if (split[i] > 0) {
+                    conn.incrBy(stockKey(voucherId, i), split[i]);
+                }
+            }
+            return null;
+        });
+    }
+
+    //把total尽量平均地拆成n份，余数分给前面的分片
+    private static int[] split(int total, int n) {
+        int[] result = new int[n];
+        for (int i = 0; i < n; i++) {
+            result[i] = total / n + (i < total % n ? 1 : 0);
+        }
+        return result;
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        shardCounts.invalidate(Long.valueOf(new String(message.getBody(), StandardCharsets.UTF_8)));
+    }
+}
@@ -0,0 +1,107 @@
+package com.hmdp.utils;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.service.ISeckillVoucherService;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.hmdp.constant.RedisConstants.SECKILL_RESTOCK_CHANNEL;
+
+/**
+ * 秒杀时间窗口的本地副本
+ * 秒杀开始前和结束后的请求在本节点直接拒绝，不访问redis
+ */
+@Component
+public class SeckillWindowRegistry implements MessageListener {
+
+    public static final int IN_WINDOW = 0;
+    public static final int NOT_STARTED = 3;
+    public static final int ENDED = 4;
+    public static final int NOT_FOUND = 5;
+
+    //不存在的优惠券也会缓存，防止同一个id反复查库；数量超过上限时淘汰最不常用的，并在一段时间后过期
+    private static final int MAX_MISSING = 10000;
+    private static final Duration MISSING_TTL = Duration.ofMinutes(1);
+
+    private static final long[] MISSING = new long[0];
+
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    //优惠券id -> {开始时间戳, 结束时间戳}，只保存存在的秒杀券
+    private final Map<Long, long[]> windows = new ConcurrentHashMap<>();
+
+    //不存在的优惠券id
+    private final Cache<Long, Boolean> missing = Caffeine.newBuilder()
+            .maximumSize(MAX_MISSING)
+            .expireAfterWrite(MISSING_TTL)
+            .build();
+
+    @PostConstruct
+    private void init() {
+        //新建秒杀券时清除本地缓存
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(SECKILL_RESTOCK_CHANNEL));
+    }
+
+    public static long toEpochMilli(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    /**
+     * 判断当前是否处于秒杀时间窗口内
+     * @param voucherId 优惠券id
+     * @return IN_WINDOW:可以秒杀，NOT_STARTED:尚未开始，ENDED:已经结束，NOT_FOUND:秒杀券不存在
+     */
+    public int check(Long voucherId) {
+        long[] window = windows.get(voucherId);
+        if (window == null) {
+            window = missing.getIfPresent(voucherId) != null ? MISSING : load(voucherId);
+        }
+        if (window == MISSING) {
+            return NOT_FOUND;
+        }
+        long now = System.currentTimeMillis();
+        if (now < window[0]) {
+            return NOT_STARTED;
+        }
+        if (now > window[1]) {
+            return ENDED;
+        }
+        return IN_WINDOW;
+    }
+
+    private long[] load(Long voucherId) {
+        SeckillVoucher voucher = seckillVoucherService.getById(voucherId);
+        if (voucher == null) {
+            missing.put(voucherId, Boolean.TRUE);
+            return MISSING;
+        }
+        long[] window = {toEpochMilli(voucher.getBeginTime()), toEpochMilli(voucher.getEndTime())};
+        windows.put(voucherId, window);
+        return window;
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        Long voucherId = Long.valueOf(new String(message.getBody(), StandardCharsets.UTF_8));
+        windows.remove(voucherId);
+        missing.invalidate(voucherId);
+    }
+}
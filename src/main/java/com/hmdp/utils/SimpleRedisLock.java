@@ -5,10 +5,16 @@ import org.springframework.core.io.ClassPathResource;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
 
-import javax.annotation.Resource;
 import java.util.Collections;
 import java.util.concurrent.TimeUnit;
 
+import static com.hmdp.constant.RedisConstants.LOCK_RELEASE_CHANNEL;
+
+/**
+ * 基于redis hash的可重入锁，field为线程标识，value为重入次数
+ * tryLock(timeOutSec) 使用固定有效期；tryLock() 使用默认有效期并由 LockWatchdog 自动续期，直到unlock；
+ * tryLock(waitTime, leaseTime, unit) 抢锁失败时阻塞等待，由 LockReleaseListener 收到释放消息后唤醒
+ */
 public class SimpleRedisLock implements ILock {
 
     private String name;
@@ -21,14 +27,21 @@ public class SimpleRedisLock implements ILock {
 
     private static final String LOCK_PREFIX = "lock:";
     private static final String ID_PREFIX = UUID.randomUUID().toString(true) + "_";
+    private static final DefaultRedisScript<Long> LOCK_SCRIPT;
     private static final DefaultRedisScript<Long> UNLOCK_SCRIPT;
 
     static {
+        LOCK_SCRIPT = new DefaultRedisScript<>();
+        LOCK_SCRIPT.setLocation(new ClassPathResource("reentrant_lock.lua"));
+        LOCK_SCRIPT.setResultType(Long.class);
         UNLOCK_SCRIPT = new DefaultRedisScript<>();
-        UNLOCK_SCRIPT.setLocation(new ClassPathResource("unlock.lua"));
+        UNLOCK_SCRIPT.setLocation(new ClassPathResource("reentrant_unlock.lua"));
         UNLOCK_SCRIPT.setResultType(Long.class);
     }
 
+    //当前线程持有的锁使用的有效期，毫秒，解锁重入的一层时按它重置有效期
+    private final ThreadLocal<Long> leaseMillis = new ThreadLocal<>();
+
     /**
      * 尝试获取锁
      *
@@ -37,12 +50,86 @@ public class SimpleRedisLock implements ILock {
      */
     @Override
     public boolean tryLock(long timeOutSec) {
+        return acquire(TimeUnit.SECONDS.toMillis(timeOutSec), false);
+    }
+
+    /**
+     * 尝试获取锁，持有期间由看门狗自动续期
+     *
+     * @return true:获取锁成功，false:获取锁失败
+     */
+    @Override
+    public boolean tryLock() {
+        return acquire(LockWatchdog.LEASE_MILLIS, true);
+    }
+
+    /**
+     * 获取锁，锁被其它线程持有时阻塞等待其释放
+     *
+     * @param waitTime  最长等待时间
+     * @param leaseTime 锁持有的超时时间，小于等于0时由看门狗自动续期
+     * @param unit      时间单位
+     * @return true:获取锁成功，false:等待超时
+     */
+    @Override
+    public boolean tryLock(long waitTime, long leaseTime, TimeUnit unit) throws InterruptedException {
+        long lease = leaseTime > 0 ? unit.toMillis(leaseTime) : LockWatchdog.LEASE_MILLIS;
+        boolean renew = leaseTime <= 0;
+        long deadline = System.currentTimeMillis() + unit.toMillis(waitTime);
+        long ttl = acquireOrTtl(lease, renew);
+        if (ttl == 0) {
+            return true;
+        }
+        //先登记再重试一次，登记之前发布的释放消息由这次重试兜底
+        String key = LOCK_PREFIX + name;
+        LockReleaseListener.Waiters waiters = LockReleaseListener.register(key);
+        try {
+            while (true) {
+                ttl = acquireOrTtl(lease, renew);
+                if (ttl == 0) {
+                    return true;
+                }
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                //等待释放消息，最多等到锁的剩余有效期
+                waiters.await(ttl > 0 ? Math.min(ttl, remaining) : remaining);
+            }
+        } finally {
+            LockReleaseListener.unregister(key);
+        }
+    }
+
+    private boolean acquire(long lease, boolean renew) {
+        return acquireOrTtl(lease, renew) == 0;
+    }
+
+    //获取成功返回0，否则返回锁的剩余有效期，毫秒，未知时返回-1
+    private long acquireOrTtl(long lease, boolean renew) {
         //获取线程标识
         String threadId = ID_PREFIX + Thread.currentThread().getId();
 
-        //获取锁
-        Boolean success = stringRedisTemplate.opsForValue().setIfAbsent(LOCK_PREFIX + name, threadId, timeOutSec, TimeUnit.SECONDS);
-        return Boolean.TRUE.equals(success);
+        //获取锁，已持有时重入次数+1
+        Long ttl = stringRedisTemplate.execute(
+                LOCK_SCRIPT,
+                Collections.singletonList(LOCK_PREFIX + name),
+                threadId, String.valueOf(lease)
+        );
+        if (ttl == null) {
+            return -1;
+        }
+        if (ttl != 0) {
+            return ttl;
+        }
+        if (leaseMillis.get() == null) {
+            //第一次获取，重入时沿用第一次的有效期和续期方式
+            leaseMillis.set(lease);
+            if (renew) {
+                LockWatchdog.register(stringRedisTemplate, LOCK_PREFIX + name, threadId);
+            }
+        }
+        return 0;
     }
 
     /**
@@ -61,11 +148,18 @@ public class SimpleRedisLock implements ILock {
 //    }
     @Override
     public void unlock() {
-        //调用lua脚本
-        stringRedisTemplate.execute(
+        String threadId = ID_PREFIX + Thread.currentThread().getId();
+        Long lease = leaseMillis.get();
+        //调用lua脚本，重入次数-1，减到0时删除锁
+        Long result = stringRedisTemplate.execute(
                 UNLOCK_SCRIPT,
                 Collections.singletonList(LOCK_PREFIX + name),
-                ID_PREFIX + Thread.currentThread().getId()
+                threadId, String.valueOf(lease == null ? LockWatchdog.LEASE_MILLIS : lease), LOCK_RELEASE_CHANNEL
         );
+        if (result == null || result != 0) {
+            //已完全释放，或者锁已过期不再由当前线程持有
+            leaseMillis.remove();
+            LockWatchdog.unregister(stringRedisTemplate, LOCK_PREFIX + name, threadId);
+        }
     }
 }
@@ -0,0 +1,238 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.hmdp.constant.RedisConstants.ID_WORKER_KEY;
+import static com.hmdp.constant.RedisConstants.ID_WORKER_LAST_KEY;
+import static com.hmdp.constant.RedisConstants.ID_WORKER_RELEASED_KEY;
+
+/**
+ * 雪花算法id生成器，发号时不访问redis
+ * <pre>
+ * 0 | 1 | 40位毫秒时间戳 | 10位worker id | 12位序列号
+ * </pre>
+ * 第62位固定为1，和 RedisIdWorker 的 秒级时间戳<<32|序列号 格式（2056年前都小于2^62）不会重复。
+ * worker id启动时从redis租用（id:worker:{n}，带过期时间并定时续期），同时记录每个worker id最后的发号时间，
+ * 新节点拿到worker id后从上一个持有者的发号时间之后开始，避免重启前后时钟不一致产生重复id：
+ * 上一个持有者正常释放时紧接着它最后的发号时间，租约过期时它在最后一次续期后最多还能发一个租约有效期的号。
+ * 时间戳和序列号打包在一个AtomicLong中CAS递增，时钟回拨或同一毫秒序列号用完时沿用逻辑时间继续递增，
+ * 逻辑时间领先系统时钟超过 max-backward-millis 时等待时钟追上
+ */
+@Slf4j
+@Component
+public class SnowflakeIdWorker {
+
+    /**
+     * 开始时间戳，毫秒
+     */
+    private static final long BEGIN_MILLIS = 1640995200000L;
+
+    private static final int SEQUENCE_BITS = 12;
+    private static final int WORKER_BITS = 10;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+    private static final int MAX_WORKERS = 1 << WORKER_BITS;
+    private static final int WORKER_SHIFT = SEQUENCE_BITS;
+    private static final int TIMESTAMP_SHIFT = SEQUENCE_BITS + WORKER_BITS;
+    /**
+     * 格式标识位
+     */
+    private static final long FORMAT_BIT = 1L << 62;
+
+    private static final String NODE_ID = UUID.randomUUID().toString(true);
+
+    private static final DefaultRedisScript<List> LEASE_SCRIPT;
+    private static final DefaultRedisScript<Long> RELEASE_SCRIPT;
+
+    static {
+        LEASE_SCRIPT = new DefaultRedisScript<>();
+        LEASE_SCRIPT.setLocation(new ClassPathResource("id_worker_lease.lua"));
+        LEASE_SCRIPT.setResultType(List.class);
+        RELEASE_SCRIPT = new DefaultRedisScript<>();
+        RELEASE_SCRIPT.setLocation(new ClassPathResource("id_worker_release.lua"));
+        RELEASE_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    //租约有效期
+    @Value("${hmdp.id.snowflake.lease-ttl-millis:30000}")
+    private long leaseTtlMillis;
+
+    //逻辑时间最多领先系统时钟多少毫秒，超过时等待时钟追上
+    @Value("${hmdp.id.snowflake.max-backward-millis:1000}")
+    private long maxBackwardMillis;
+
+    //最后一次发号的 相对时间戳<<12|序列号
+    private final AtomicLong state = new AtomicLong();
+
+    private volatile long workerId = -1;
+
+    //租约到期时间，超过后在续期成功前不再发号
+    private volatile long leaseDeadline;
+
+    @PostConstruct
+    private void init() {
+        try {
+            acquire();
+        } catch (Exception e) {
+            //稍后续期时重试，在此之前使用redis格式的id
+            log.error("租用worker id失败", e);
+        }
+    }
+
+    /**
+     * 是否持有有效的worker id租约，并且逻辑时间没有领先系统时钟太多，发号时不需要等待
+     */
+    public boolean isAvailable() {
+        long now = System.currentTimeMillis();
+        return workerId >= 0 && now < leaseDeadline && lastIssuedMillis() - now <= maxBackwardMillis;
+    }
+
+    /**
+     * 生成id，逻辑时间领先系统时钟超过 max-backward-millis 时等待时钟追上
+     * @throws IllegalStateException 没有有效的worker id租约，或等待时被中断
+     */
+    public long nextId() {
+        long worker = workerId;
+        while (true) {
+            long now = System.currentTimeMillis();
+            if (worker < 0 || now >= leaseDeadline) {
+                throw new IllegalStateException("没有有效的worker id租约");
+            }
+            long timestamp = now - BEGIN_MILLIS;
+            long current = state.get();
+            long last = current >>> SEQUENCE_BITS;
+            long next;
+            if (timestamp > last) {
+                //新的一毫秒，序列号从0开始
+                next = timestamp << SEQUENCE_BITS;
+            } else {
+                //同一毫秒或时钟回拨，沿用逻辑时间，序列号用完时进位到下一毫秒
+                long ahead = last - timestamp;
+                if (ahead > maxBackwardMillis) {
+                    //领先太多，等待时钟追上后重试
+                    awaitClock(ahead - maxBackwardMillis);
+                    continue;
+                }
+                next = current + 1;
+            }
+            if (state.compareAndSet(current, next)) {
+                return FORMAT_BIT
+                        | (next >>> SEQUENCE_BITS) << TIMESTAMP_SHIFT
+                        | worker << WORKER_SHIFT
+                        | (next & SEQUENCE_MASK);
+            }
+        }
+    }
+
+    //续期间隔必须小于租约有效期
+    @Scheduled(fixedDelayString = "${hmdp.id.snowflake.renew-interval-millis:10000}")
+    public void renew() {
+        try {
+            long worker = workerId;
+            if (worker < 0) {
+                acquire();
+                return;
+            }
+            long start = System.currentTimeMillis();
+            List<?> r = stringRedisTemplate.execute(LEASE_SCRIPT, keys(worker),
+                    NODE_ID, String.valueOf(leaseTtlMillis), String.valueOf(lastIssuedMillis()));
+            if (r != null && (Long) r.get(0) >= 0) {
+                leaseDeadline = start + leaseTtlMillis;
+                return;
+            }
+            //租约已过期并被其它节点拿走，换一个worker id
+            log.warn("worker id租约已被其它节点持有，workerId=" + worker);
+            workerId = -1;
+            acquire();
+        } catch (Exception e) {
+            //redis不可用时继续使用当前租约直到到期
+            log.error("续期worker id租约失败", e);
+        }
+    }
+
+    @PreDestroy
+    private void destroy() {
+        long worker = workerId;
+        if (worker < 0) {
+            return;
+        }
+        try {
+            //先停止发号，再记录最终的发号进度并释放租约，下一个持有者从该进度之后开始
+            workerId = -1;
+            stringRedisTemplate.execute(RELEASE_SCRIPT, keys(worker), NODE_ID, String.valueOf(lastIssuedMillis()));
+        } catch (Exception e) {
+            log.error("释放worker id租约失败", e);
+        }
+    }
+
+    //从随机位置开始依次尝试租用一个空闲的worker id
+    private synchronized void acquire() {
+        if (workerId >= 0) {
+            return;
+        }
+        int start = ThreadLocalRandom.current().nextInt(MAX_WORKERS);
+        for (int i = 0; i < MAX_WORKERS; i++) {
+            int worker = (start + i) % MAX_WORKERS;
+            long begin = System.currentTimeMillis();
+            List<?> r = stringRedisTemplate.execute(LEASE_SCRIPT, keys(worker),
+                    NODE_ID, String.valueOf(leaseTtlMillis), "0");
+            long recorded = r == null ? -1 : (Long) r.get(0);
+            if (recorded < 0) {
+                continue;
+            }
+            long resumeAt = recorded > 0 ? resumeMillis(recorded, (Long) r.get(1) > 0) - BEGIN_MILLIS : 0;
+            state.accumulateAndGet(resumeAt << SEQUENCE_BITS, Math::max);
+            leaseDeadline = begin + leaseTtlMillis;
+            workerId = worker;
+            log.info("租用worker id成功，workerId=" + worker);
+            return;
+        }
+        throw new IllegalStateException("没有空闲的worker id");
+    }
+
+    /**
+     * 新持有者开始发号的时间
+     * @param recorded 上一个持有者最后记录的发号时间
+     * @param released 上一个持有者是否正常释放，释放后不会再发号，否则它在最后一次续期后直到租约过期都可能发号
+     */
+    long resumeMillis(long recorded, boolean released) {
+        return released ? recorded + 1 : recorded + leaseTtlMillis;
+    }
+
+    private void awaitClock(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("等待时钟追上时被中断");
+        }
+    }
+
+    //0表示还没有发过号
+    private long lastIssuedMillis() {
+        long timestamp = state.get() >>> SEQUENCE_BITS;
+        return timestamp == 0 ? 0 : timestamp + BEGIN_MILLIS;
+    }
+
+    private static List<String> keys(long worker) {
+        return Arrays.asList(ID_WORKER_KEY + "{" + worker + "}", ID_WORKER_LAST_KEY + "{" + worker + "}",
+                ID_WORKER_RELEASED_KEY + "{" + worker + "}");
+    }
+}
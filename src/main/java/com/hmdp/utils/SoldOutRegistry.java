@@ -0,0 +1,106 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.hmdp.constant.RedisConstants.SECKILL_RESTOCK_CHANNEL;
+
+/**
+ * 本节点的秒杀券售罄标记
+ * 秒杀脚本返回库存不足后在本地打标，后续请求无需访问redis直接拒绝；
+ * 补货时通过redis pub/sub通知所有节点清除标记
+ */
+@Slf4j
+@Component
+public class SoldOutRegistry implements MessageListener {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    /**
+     * 售罄标记的有效期，过期后放行一次请求到redis重新确认，防止丢失补货消息导致永久售罄
+     */
+    @Value("${hmdp.seckill.sold-out-ttl-millis:60000}")
+    private long soldOutTtlMillis;
+
+    //优惠券id -> 打标时间
+    private final Map<Long, Long> soldOut = new ConcurrentHashMap<>();
+
+    //每收到一次补货消息加1，用于丢弃补货之前发起的请求的打标
+    private final AtomicLong version = new AtomicLong();
+
+    @PostConstruct
+    private void init() {
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(SECKILL_RESTOCK_CHANNEL));
+    }
+
+    /**
+     * 判断优惠券在本节点是否已标记为售罄
+     * @param voucherId 优惠券id
+     * @return true:已售罄，false:未知，需要访问redis
+     */
+    public boolean isSoldOut(Long voucherId) {
+        Long markedAt = soldOut.get(voucherId);
+        if (markedAt == null) {
+            return false;
+        }
+        if (System.currentTimeMillis() - markedAt > soldOutTtlMillis) {
+            //标记过期，放行本次请求重新确认库存
+            soldOut.remove(voucherId, markedAt);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 当前标记版本，在执行秒杀脚本之前获取
+     */
+    public long version() {
+        return version.get();
+    }
+
+    /**
+     * 标记优惠券售罄
+     * @param voucherId 优惠券id
+     * @param version 执行秒杀脚本前获取的版本，期间发生过补货则不打标
+     */
+    public void markSoldOut(Long voucherId, long version) {
+        soldOut.put(voucherId, System.currentTimeMillis());
+        if (this.version.get() != version) {
+            //脚本执行期间收到补货消息，撤销标记
+            soldOut.remove(voucherId);
+        }
+    }
+
+    /**
+     * 广播补货消息，所有节点（包括本节点）清除该优惠券的售罄标记
+     * @param voucherId 优惠券id
+     */
+    public void publishRestock(Long voucherId) {
+        stringRedisTemplate.convertAndSend(SECKILL_RESTOCK_CHANNEL, voucherId.toString());
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        Long voucherId = Long.valueOf(new String(message.getBody(), StandardCharsets.UTF_8));
+        version.incrementAndGet();
+        soldOut.remove(voucherId);
+        log.debug("收到补货消息，清除售罄标记 voucherId={}", voucherId);
+    }
+}
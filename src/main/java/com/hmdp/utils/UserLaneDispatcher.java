@@ -0,0 +1,58 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.thread.ThreadFactoryBuilder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * 按用户分区的单线程通道
+ * 用户id哈希到固定数量的单线程执行器上，同一用户的任务总是在同一个线程上按提交顺序执行，
+ * 不需要分布式锁；不同用户的任务分散在各个通道上并行执行
+ */
+@Component
+public class UserLaneDispatcher {
+
+    @Value("${hmdp.seckill.lanes:8}")
+    private int laneCount;
+
+    private ExecutorService[] lanes;
+
+    @PostConstruct
+    private void init() {
+        lanes = new ExecutorService[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            lanes[i] = Executors.newSingleThreadExecutor(
+                    ThreadFactoryBuilder.create().setNamePrefix("seckill-lane-" + i + "-").build());
+        }
+    }
+
+    @PreDestroy
+    private void destroy() {
+        for (ExecutorService lane : lanes) {
+            lane.shutdownNow();
+        }
+    }
+
+    /**
+     * 用户所在的通道
+     * @param userId 用户id
+     * @return 通道序号
+     */
+    public int laneOf(Long userId) {
+        return (int) Math.floorMod(userId, (long) laneCount);
+    }
+
+    /**
+     * 把任务提交到指定通道，任务中的用户必须都属于该通道
+     */
+    public <T> Future<T> submitToLane(int lane, Callable<T> task) {
+        return lanes[lane].submit(task);
+    }
+}
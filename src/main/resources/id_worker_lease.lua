@@ -0,0 +1,37 @@
+-- 1.参数列表
+-- 1.1.worker id租约key，值为持有租约的节点
+local leaseKey = KEYS[1]
+-- 1.2.该worker id最后一次发号的毫秒时间戳
+local lastKey = KEYS[2]
+-- 1.3.上一个持有者正常释放租约的标记，存在时最后的发号时间就是它真正的发号进度
+local releasedKey = KEYS[3]
+-- 1.4.当前节点标识
+local node = ARGV[1]
+-- 1.5.租约有效期，毫秒
+local ttl = ARGV[2]
+-- 1.6.当前节点最后一次发号的毫秒时间戳，0表示还没有发过号
+local last = tonumber(ARGV[3])
+
+-- 2.获取或续期租约
+local holder = redis.call('get', leaseKey)
+local released = 0
+if (holder == node) then
+    -- 2.1.自己持有，续期
+    redis.call('pexpire', leaseKey, ttl)
+elseif (not holder) then
+    -- 2.2.没有节点持有，获取租约，取出并清除释放标记
+    redis.call('set', leaseKey, node, 'PX', ttl)
+    released = redis.call('del', releasedKey)
+else
+    -- 2.3.被其它节点持有，返回-1
+    return {-1, 0}
+end
+-- 3.记录发号进度，返回该worker id上一次记录的发号时间和是否正常释放
+if (last > 0) then
+    redis.call('set', lastKey, last)
+end
+local recorded = redis.call('get', lastKey)
+if (recorded) then
+    return {tonumber(recorded), released}
+end
+return {0, released}
@@ -0,0 +1,22 @@
+-- 1.参数列表
+-- 1.1.worker id租约key，值为持有租约的节点
+local leaseKey = KEYS[1]
+-- 1.2.该worker id最后一次发号的毫秒时间戳
+local lastKey = KEYS[2]
+-- 1.3.正常释放租约的标记
+local releasedKey = KEYS[3]
+-- 1.4.当前节点标识
+local node = ARGV[1]
+-- 1.5.当前节点最后一次发号的毫秒时间戳，0表示还没有发过号
+local last = tonumber(ARGV[2])
+
+-- 2.租约已经不属于当前节点，不修改
+if (redis.call('get', leaseKey) ~= node) then
+    return 0
+end
+-- 3.记录最终的发号进度和释放标记，之后不会再发号，下一个持有者可以紧接着发号
+if (last > 0) then
+    redis.call('set', lastKey, last)
+end
+redis.call('set', releasedKey, '1')
+return redis.call('del', leaseKey)
@@ -0,0 +1,21 @@
+-- 1.参数列表
+-- 1.1.锁的key，hash结构，field为持有锁的线程标识，value为重入次数
+local key = KEYS[1]
+-- 1.2.线程标识
+local owner = ARGV[1]
+-- 1.3.锁的有效期，毫秒
+local leaseMillis = ARGV[2]
+
+-- 2.锁不存在，或者是自己持有的锁，重入次数+1并重置有效期
+if (redis.call('exists', key) == 0 or redis.call('hexists', key, owner) == 1) then
+    redis.call('hincrby', key, owner, 1)
+    redis.call('pexpire', key, leaseMillis)
+    -- 2.1.获取成功，返回0
+    return 0
+end
+-- 3.被其它线程持有，返回锁的剩余有效期
+local ttl = redis.call('pttl', key)
+if (ttl <= 0) then
+    return 1
+end
+return ttl
@@ -0,0 +1,6 @@
+-- 看门狗续期：锁仍由该线程持有时重置有效期，返回1；否则返回0
+if (redis.call('hexists', KEYS[1], ARGV[1]) == 1) then
+    redis.call('pexpire', KEYS[1], ARGV[2])
+    return 1
+end
+return 0
@@ -0,0 +1,25 @@
+-- 1.参数列表
+-- 1.1.锁的key
+local key = KEYS[1]
+-- 1.2.线程标识
+local owner = ARGV[1]
+-- 1.3.锁的有效期，毫秒
+local leaseMillis = ARGV[2]
+-- 1.4.锁释放消息的频道
+local channel = ARGV[3]
+
+-- 2.不是自己持有的锁，返回-1
+if (redis.call('hexists', key, owner) == 0) then
+    return -1
+end
+-- 3.重入次数-1
+local count = redis.call('hincrby', key, owner, -1)
+if (count > 0) then
+    -- 3.1.还有重入，重置有效期，返回0
+    redis.call('pexpire', key, leaseMillis)
+    return 0
+end
+-- 3.2.已完全释放，删除锁，通知等待的线程，返回1
+redis.call('del', key)
+redis.call('publish', channel, key)
+return 1
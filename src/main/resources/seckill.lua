@@ -10,14 +10,32 @@ local voucherId = ARGV[1]
 local userId = ARGV[2]
 -- 1.3.订单id
 local orderId = ARGV[3]
+-- 1.4.订单队列stream的key，为空时由调用方发送消息
+local streamKey = ARGV[4]
 
 -- 2.数据key
 -- 2.1.库存key
 local stockKey='seckill:stock:'..voucherId
 -- 2.2.订单key
 local orderKey='seckill:order:'..voucherId
+-- 2.3.秒杀时间窗口key
+local windowKey='seckill:window:'..voucherId
 
 -- 3.脚本业务
+-- 3.0.判断是否在秒杀时间窗口内 hmget windowKey begin end
+local window = redis.call('hmget', windowKey, 'begin', 'end')
+if (window[1]) then
+    local time = redis.call('TIME')
+    local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+    if (now < tonumber(window[1])) then
+        -- 3.0.1.秒杀尚未开始，返回3
+        return 3
+    end
+    if (now > tonumber(window[2])) then
+        -- 3.0.2.秒杀已经结束，返回4
+        return 4
+    end
+end
 -- 3.1.判断是否有库存 get stockKey
 if (tonumber(redis.call('get', stockKey)) <= 0) then
     -- 3.1.1.没有库存，直接返回1
@@ -33,5 +51,7 @@ redis.call('decrby', stockKey, 1)
 -- 3.4.记录订单 sadd orderKey userId
 redis.call('sadd', orderKey, userId)
 -- 3.5.发送消息到队列，XADD stream.order * k1 v1 k2 v2 ...
-redis.call('XADD', 'stream.order', '*', 'voucherId', voucherId, 'userId', userId, 'id', orderId);
+if (streamKey and streamKey ~= '') then
+    redis.call('XADD', streamKey, '*', 'voucherId', voucherId, 'userId', userId, 'id', orderId);
+end
 return 0
@@ -0,0 +1,44 @@
+---
+--- 分片秒杀第一步，在用户的主分片上执行
+--- KEYS[1] 主分片库存key，KEYS[2] 主分片购买用户key，KEYS[3] 主分片秒杀时间窗口key，三者hash tag相同
+---
+-- 1.参数列表
+-- 1.1.用户id
+local userId = ARGV[1]
+
+-- 2.数据key
+local stockKey = KEYS[1]
+local orderKey = KEYS[2]
+local windowKey = KEYS[3]
+
+-- 3.脚本业务
+-- 3.0.判断是否在秒杀时间窗口内 hmget windowKey begin end
+local window = redis.call('hmget', windowKey, 'begin', 'end')
+if (window[1]) then
+    local time = redis.call('TIME')
+    local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+    if (now < tonumber(window[1])) then
+        -- 3.0.1.秒杀尚未开始，返回3
+        return 3
+    end
+    if (now > tonumber(window[2])) then
+        -- 3.0.2.秒杀已经结束，返回4
+        return 4
+    end
+end
+-- 3.1.判断是否重复下单 SISMEMBER orderKey userId
+if (redis.call('SISMEMBER', orderKey, userId) == 1) then
+    -- 3.1.1.重复下单，直接返回2
+    return 2
+end
+-- 3.2.先占位，之后无论从哪个分片扣减库存，同一用户都只能成功一次
+redis.call('sadd', orderKey, userId)
+-- 3.3.判断主分片是否有库存
+local stock = tonumber(redis.call('get', stockKey))
+if (stock ~= nil and stock > 0) then
+    -- 3.3.1.有库存，扣减库存，返回0
+    redis.call('decrby', stockKey, 1)
+    return 0
+end
+-- 3.4.主分片没有库存，保留占位，由调用方继续尝试其它分片，返回1
+return 1
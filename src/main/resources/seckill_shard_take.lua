@@ -0,0 +1,11 @@
+---
+--- 分片秒杀第二步，主分片库存不足时依次在其它分片上执行
+--- KEYS[1] 分片库存key
+---
+-- 判断分片是否有库存，有则扣减并返回0，否则返回1
+local stock = tonumber(redis.call('get', KEYS[1]))
+if (stock ~= nil and stock > 0) then
+    redis.call('decrby', KEYS[1], 1)
+    return 0
+end
+return 1
@@ -0,0 +1,8 @@
+-- 1.参数列表
+-- 1.1.stream的key
+local key = KEYS[1]
+-- 1.2.所有消费者组都已确认的最小消息id，比它小的消息可以删除
+local minId = ARGV[1]
+
+-- 2.近似裁剪，只删除整个宏节点，代价远小于精确裁剪
+return redis.call('xtrim', key, 'MINID', '~', minId)
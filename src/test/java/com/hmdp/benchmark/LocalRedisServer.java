@@ -0,0 +1,85 @@
+package com.hmdp.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 压测用的本地redis进程，使用随机端口、不持久化，测试结束后销毁
+ * 需要PATH中有redis-server，也可以用 -Dbench.redis-server=/path/to/redis-server 指定
+ */
+public class LocalRedisServer implements AutoCloseable {
+
+    public static final String PASSWORD = "benchmark";
+
+    private final Process process;
+
+    private final int port;
+
+    private LocalRedisServer(Process process, int port) {
+        this.process = process;
+        this.port = port;
+    }
+
+    public static boolean isAvailable() {
+        try {
+            Process p = new ProcessBuilder(executable(), "--version").redirectErrorStream(true).start();
+            return p.waitFor(5, TimeUnit.SECONDS) && p.exitValue() == 0;
+        } catch (IOException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    public static LocalRedisServer start() throws IOException, InterruptedException {
+        int port = freePort();
+        Process process = new ProcessBuilder(executable(),
+                "--port", String.valueOf(port),
+                "--requirepass", PASSWORD,
+                "--save", "",
+                "--appendonly", "no")
+                .redirectErrorStream(true)
+                .redirectOutput(new File(System.getProperty("java.io.tmpdir"), "benchmark-redis-" + port + ".log"))
+                .start();
+        //等待端口可以连接
+        long deadline = System.currentTimeMillis() + 10000;
+        while (System.currentTimeMillis() < deadline) {
+            if (!process.isAlive()) {
+                throw new IllegalStateException("redis-server启动失败，退出码" + process.exitValue());
+            }
+            try (Socket ignored = new Socket("127.0.0.1", port)) {
+                return new LocalRedisServer(process, port);
+            } catch (IOException e) {
+                Thread.sleep(50);
+            }
+        }
+        process.destroyForcibly();
+        throw new IllegalStateException("redis-server启动超时");
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        process.destroy();
+        if (!process.waitFor(5, TimeUnit.SECONDS)) {
+            process.destroyForcibly();
+        }
+    }
+
+    private static String executable() {
+        return System.getProperty("bench.redis-server", "redis-server");
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package com.hmdp.benchmark;
+
+import com.hmdp.controller.VoucherOrderController;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.Voucher;
+import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.UserHolder;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * 秒杀端到端压测：本地redis-server + H2(MySQL模式)，大量模拟用户并发调用 VoucherOrderController.seckillVoucher，
+ * 统计接口延迟p50/p99、每秒抢到的订单数、每秒落库的订单数，以及超卖和重复下单的数量
+ * <p>
+ * 运行：mvn test -Pbenchmark -Dbench.users=5000 -Dbench.stock=1000 -Dbench.threads=200 -Dbench.attempts=2 -Dbench.shards=1
+ * 切换订单队列：-Dhmdp.seckill.queue.type=ring-buffer
+ */
+@Tag("benchmark")
+@SpringBootTest
+@ActiveProfiles("benchmark")
+class SeckillBenchmark {
+
+    private static LocalRedisServer redis;
+
+    @Resource
+    private VoucherOrderController voucherOrderController;
+
+    @Resource
+    private IVoucherService voucherService;
+
+    @Resource
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeAll
+    static void startRedis() throws Exception {
+        assumeTrue(LocalRedisServer.isAvailable(), "PATH中没有redis-server，跳过秒杀压测");
+        redis = LocalRedisServer.start();
+    }
+
+    @AfterAll
+    static void stopRedis() throws Exception {
+        if (redis != null) {
+            redis.close();
+        }
+    }
+
+    @DynamicPropertySource
+    static void redisProperties(DynamicPropertyRegistry registry) {
+        registry.add("spring.redis.port", () -> redis.getPort());
+        registry.add("spring.redis.password", () -> LocalRedisServer.PASSWORD);
+    }
+
+    @Test
+    void seckill() throws Exception {
+        int users = Integer.getInteger("bench.users", 5000);
+        int stock = Integer.getInteger("bench.stock", 1000);
+        int threads = Integer.getInteger("bench.threads", 200);
+        //每个用户的请求次数，大于1时同时检验一人一单
+        int attempts = Integer.getInteger("bench.attempts", 2);
+        int shards = Integer.getInteger("bench.shards", 1);
+        Long voucherId = addSeckillVoucher(stock, shards);
+
+        long[] latencies = new long[users * attempts];
+        AtomicInteger requests = new AtomicInteger();
+        //抢到的订单
+        Set<Long> admittedUsers = ConcurrentHashMap.newKeySet();
+        LongAdder admittedTwice = new LongAdder();
+        //失败原因 -> 次数
+        Map<String, LongAdder> failures = new ConcurrentHashMap<>();
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(users);
+        for (int i = 0; i < users; i++) {
+            long userId = 1_000_000L + i;
+            pool.submit(() -> {
+                UserDTO user = new UserDTO();
+                user.setId(userId);
+                UserHolder.saveUser(user);
+                try {
+                    start.await();
+                    for (int a = 0; a < attempts; a++) {
+                        long begin = System.nanoTime();
+                        Result result = voucherOrderController.seckillVoucher(voucherId);
+                        latencies[requests.getAndIncrement()] = System.nanoTime() - begin;
+                        if (Boolean.TRUE.equals(result.getSuccess())) {
+                            if (!admittedUsers.add(userId)) {
+                                admittedTwice.increment();
+                            }
+                        } else {
+                            failures.computeIfAbsent(result.getErrorMsg(), k -> new LongAdder()).increment();
+                        }
+                    }
+                } catch (Exception e) {
+                    failures.computeIfAbsent(e.getClass().getSimpleName(), k -> new LongAdder()).increment();
+                } finally {
+                    UserHolder.removeUser();
+                    done.countDown();
+                }
+            });
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        long admittedNanos = System.nanoTime() - begin;
+        pool.shutdown();
+
+        //等待异步落库完成
+        long admitted = admittedUsers.size() + admittedTwice.sum();
+        long persisted = 0;
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(Long.getLong("bench.persist-timeout-seconds", 60));
+        while (System.currentTimeMillis() < deadline) {
+            persisted = countOrders(voucherId);
+            if (persisted >= admitted) {
+                break;
+            }
+            Thread.sleep(20);
+        }
+        long persistedNanos = System.nanoTime() - begin;
+
+        int remainingStock = jdbcTemplate.queryForObject(
+                "SELECT stock FROM tb_seckill_voucher WHERE voucher_id = ?", Integer.class, voucherId);
+        long duplicateRows = jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM (SELECT user_id FROM tb_voucher_order WHERE voucher_id = ? " +
+                        "GROUP BY user_id HAVING COUNT(*) > 1) t", Long.class, voucherId);
+        long oversold = Math.max(0, Math.max(admitted, persisted) - stock) + Math.max(0, -remainingStock);
+
+        int n = requests.get();
+        long[] sorted = Arrays.copyOf(latencies, n);
+        Arrays.sort(sorted);
+        System.out.println("========== 秒杀压测 ==========");
+        System.out.printf("用户数=%d 每用户请求=%d 线程=%d 库存=%d 分片=%d%n", users, attempts, threads, stock, shards);
+        System.out.printf("请求数=%d 耗时=%.1fms 吞吐=%.0f req/s%n", n, admittedNanos / 1e6, n / (admittedNanos / 1e9));
+        System.out.printf("延迟 p50=%.2fms p99=%.2fms max=%.2fms%n",
+                percentile(sorted, 0.50) / 1e6, percentile(sorted, 0.99) / 1e6, sorted[n - 1] / 1e6);
+        System.out.printf("抢到订单=%d (%.0f/s)  已落库=%d (%.0f/s)%n",
+                admitted, admitted / (admittedNanos / 1e9), persisted, persisted / (persistedNanos / 1e9));
+        System.out.printf("剩余库存=%d 超卖=%d 重复抢到=%d 重复落库=%d%n",
+                remainingStock, oversold, admittedTwice.sum(), duplicateRows);
+        failures.forEach((reason, count) -> System.out.printf("失败[%s]=%d%n", reason, count.sum()));
+
+        assertEquals(0, oversold, "超卖");
+        assertEquals(0, admittedTwice.sum(), "同一用户抢到多次");
+        assertEquals(0, duplicateRows, "同一用户重复落库");
+        assertEquals(admitted, persisted, "抢到的订单没有全部落库");
+        assertEquals(stock - persisted, remainingStock, "数据库库存与订单数不一致");
+    }
+
+    //创建一张已开始的秒杀券
+    private Long addSeckillVoucher(int stock, int shards) {
+        Voucher voucher = new Voucher();
+        voucher.setShopId(1L);
+        voucher.setTitle("压测秒杀券");
+        voucher.setPayValue(100L);
+        voucher.setActualValue(1000L);
+        voucher.setType(1);
+        voucher.setStatus(1);
+        voucher.setStock(stock);
+        voucher.setShards(shards);
+        voucher.setBeginTime(LocalDateTime.now().minusMinutes(1));
+        voucher.setEndTime(LocalDateTime.now().plusHours(1));
+        voucherService.addSeckillVoucher(voucher);
+        return voucher.getId();
+    }
+
+    private long countOrders(Long voucherId) {
+        return jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM tb_voucher_order WHERE voucher_id = ?", Long.class, voucherId);
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(p * sorted.length) - 1)];
+    }
+}
@@ -0,0 +1,111 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.ShopType;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BinaryCacheCodecTest {
+
+    private final BinaryCacheCodec codec = new BinaryCacheCodec();
+
+    @Test
+    void roundTripValue() {
+        Shop shop = shop();
+        byte[] bytes = codec.encode(shop);
+        assertTrue(codec.accepts(bytes));
+        assertEquals(shop, codec.decode(bytes, Shop.class));
+    }
+
+    @Test
+    void roundTripNullFieldsAndNegativeNumbers() {
+        Shop shop = new Shop();
+        shop.setId(-1L);
+        shop.setSold(Integer.MIN_VALUE);
+        shop.setAvgPrice(Long.MAX_VALUE);
+        shop.setX(-0.5);
+        assertEquals(shop, codec.decode(codec.encode(shop), Shop.class));
+    }
+
+    @Test
+    void roundTripList() {
+        ShopType food = new ShopType().setId(1L).setName("美食").setIcon("/types/ms.png").setSort(1);
+        ShopType ktv = new ShopType().setId(2L).setName("KTV").setSort(2);
+        List<ShopType> types = Arrays.asList(food, ktv);
+        assertEquals(types, codec.decodeList(codec.encodeList(types, ShopType.class), ShopType.class));
+    }
+
+    @Test
+    void roundTripLogicExpire() {
+        Shop shop = shop();
+        LocalDateTime expireTime = LocalDateTime.of(2024, 1, 1, 12, 30, 15, 123456789);
+        RedisData redisData = codec.decodeLogicExpire(codec.encodeLogicExpire(shop, expireTime), Shop.class);
+        assertEquals(expireTime, redisData.getExpireTime());
+        assertEquals(shop, redisData.getData());
+    }
+
+    @Test
+    void decodeAsAnotherClassReturnsNull() {
+        byte[] bytes = codec.encode(shop());
+        assertNull(codec.decode(bytes, UserDTO.class));
+        assertNull(codec.decodeLogicExpire(bytes, Shop.class));
+        assertNull(codec.decodeList(bytes, Shop.class));
+    }
+
+    @Test
+    void fingerprintMismatchReturnsNull() {
+        byte[] bytes = codec.encode(shop());
+        //字段结构指纹在第4到7个字节
+        bytes[3] ^= 1;
+        assertNull(codec.decode(bytes, Shop.class));
+    }
+
+    @Test
+    void truncatedDataReturnsNull() {
+        byte[] bytes = codec.encode(shop());
+        assertNull(codec.decode(Arrays.copyOf(bytes, bytes.length - 4), Shop.class));
+    }
+
+    @Test
+    void distinguishesJson() {
+        assertFalse(codec.accepts("{\"id\":1}".getBytes(StandardCharsets.UTF_8)));
+        assertTrue(new JsonCacheCodec().accepts("{\"id\":1}".getBytes(StandardCharsets.UTF_8)));
+        assertFalse(new JsonCacheCodec().accepts(codec.encode(shop())));
+    }
+
+    @Test
+    void unsupportedTypes() {
+        //data字段是Object
+        assertFalse(codec.supports(RedisData.class));
+        assertFalse(codec.supports(String.class));
+        assertTrue(codec.supports(Shop.class));
+        assertThrows(IllegalArgumentException.class, () -> codec.encode(new RedisData()));
+    }
+
+    private static Shop shop() {
+        Shop shop = new Shop();
+        shop.setId(1L);
+        shop.setName("103茶餐厅");
+        shop.setTypeId(1L);
+        shop.setImages("https://qcloud.dpfile.com/pc/jiclIsCKmOI2arxKN1Uf0Hx3PucIJH8q0QSz-Z8llzcN56-_QiKuOvyio1OOxsRt.jpg");
+        shop.setArea("大关");
+        shop.setAddress("金华路锦昌文华苑29号");
+        shop.setX(120.149192);
+        shop.setY(30.316078);
+        shop.setAvgPrice(80L);
+        shop.setSold(4215);
+        shop.setComments(3035);
+        shop.setScore(37);
+        shop.setOpenHours("10:00-22:00");
+        shop.setCreateTime(LocalDateTime.of(2021, 12, 22, 18, 10, 39));
+        shop.setUpdateTime(LocalDateTime.of(2022, 1, 13, 17, 32, 19));
+        return shop;
+    }
+}
@@ -0,0 +1,107 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class RedisIdWorkerTest {
+
+    private static final long STEP = 10;
+
+    //模拟redis中的 icr:{prefix}:{date}
+    private final AtomicLong counter = new AtomicLong();
+
+    //INCRBY 调用次数
+    private final AtomicInteger loads = new AtomicInteger();
+
+    private RedisIdWorker worker;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        StringRedisTemplate template = mock(StringRedisTemplate.class);
+        ValueOperations<String, String> ops = mock(ValueOperations.class);
+        when(template.opsForValue()).thenReturn(ops);
+        when(ops.increment(anyString(), anyLong())).thenAnswer(invocation -> {
+            loads.incrementAndGet();
+            return counter.addAndGet(invocation.getArgument(1));
+        });
+        worker = new RedisIdWorker(template);
+        ReflectionTestUtils.setField(worker, "segmentStep", STEP);
+        ReflectionTestUtils.setField(worker, "prefetchRatio", 0.2);
+        ReflectionTestUtils.setField(worker, "snowflakePrefixes", Collections.emptySet());
+    }
+
+    @Test
+    void countsAreConsecutiveAcrossSegments() {
+        //不预取时号段用完才同步切换，序列号连续，每个号段只INCRBY一次
+        ReflectionTestUtils.setField(worker, "prefetchRatio", 0.0);
+        for (long expected = 1; expected <= STEP * 5 + 3; expected++) {
+            assertEquals(expected, worker.nextId("order") & 0xFFFFFFFFL);
+        }
+        assertEquals(6, loads.get());
+    }
+
+    @Test
+    void prefetchedSegmentIsUsedOnSwitch() throws Exception {
+        //分配到第 1 + 10*0.8 = 9 个序列号时异步预取下一个号段
+        for (long expected = 1; expected <= 9; expected++) {
+            assertEquals(expected, worker.nextId("order") & 0xFFFFFFFFL);
+        }
+        awaitPrefetch();
+        assertEquals(2, loads.get());
+        //切换到预取的号段，不再同步INCRBY
+        for (long expected = 10; expected <= 18; expected++) {
+            assertEquals(expected, worker.nextId("order") & 0xFFFFFFFFL);
+        }
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void concurrentIdsAreUnique() throws InterruptedException {
+        Set<Long> ids = Collections.synchronizedSet(new HashSet<>());
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 2000; i++) {
+                    ids.add(worker.nextId("order"));
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(16000, ids.size());
+    }
+
+    @Test
+    void prefixesUseSeparateSegments() {
+        assertEquals(1, worker.nextId("order") & 0xFFFFFFFFL);
+        //另一个前缀从redis取到的是下一段
+        assertEquals(STEP + 1, worker.nextId("blog") & 0xFFFFFFFFL);
+        assertEquals(2, worker.nextId("order") & 0xFFFFFFFFL);
+    }
+
+    //预取线程是单线程，排在预取任务之后的空任务完成时预取也已完成
+    private void awaitPrefetch() throws Exception {
+        ExecutorService executor = (ExecutorService) ReflectionTestUtils.getField(worker, "prefetchExecutor");
+        executor.submit(() -> { }).get(5, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,147 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.VoucherOrder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RingBufferOrderQueueTest {
+
+    private static final int RECORD_SIZE = 25;
+
+    @TempDir
+    Path dir;
+
+    private Path journal;
+
+    private RingBufferOrderQueue queue;
+
+    @BeforeEach
+    void setUp() {
+        journal = dir.resolve("order-queue.journal");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        if (queue != null) {
+            FileChannel channel = (FileChannel) ReflectionTestUtils.getField(queue, "journal");
+            channel.close();
+        }
+    }
+
+    @Test
+    void replayKeepsLastRecordOfUnackedOrders() {
+        ByteBuffer buffer = records(
+                record('P', 1), record('P', 2), record('A', 1),
+                record('P', 3), record('D', 3), record('P', 4), record('A', 4));
+        Map<Long, long[]> live = RingBufferOrderQueue.replay(buffer, new LinkedHashMap<>());
+        assertEquals(Arrays.asList(2L, 3L), new ArrayList<>(live.keySet()));
+        assertEquals('P', live.get(2L)[0]);
+        assertEquals('D', live.get(3L)[0]);
+    }
+
+    @Test
+    void replayIgnoresPartialTrailingRecord() {
+        ByteBuffer full = records(record('P', 1), record('P', 2));
+        ByteBuffer truncated = ByteBuffer.wrap(Arrays.copyOf(full.array(), RECORD_SIZE * 2 - 3));
+        Map<Long, long[]> live = RingBufferOrderQueue.replay(truncated, new LinkedHashMap<>());
+        assertEquals(Arrays.asList(1L), new ArrayList<>(live.keySet()));
+    }
+
+    @Test
+    void rewriteThenReplayRoundTrips() throws IOException {
+        List<long[]> records = Arrays.asList(record('P', 5), record('D', 6));
+        RingBufferOrderQueue.rewrite(journal, records);
+        assertEquals(RECORD_SIZE * 2, Files.size(journal));
+        Map<Long, long[]> live = RingBufferOrderQueue.replay(
+                ByteBuffer.wrap(Files.readAllBytes(journal)), new LinkedHashMap<>());
+        assertArrayEquals(records.get(0), live.get(5L));
+        assertArrayEquals(records.get(1), live.get(6L));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void startupRecoversUnackedOrdersAndDeadLetters() throws IOException {
+        Files.write(journal, records(record('P', 1), record('P', 2), record('A', 1), record('D', 3)).array());
+        queue = newQueue(Long.MAX_VALUE);
+        List<long[]> recovered = (List<long[]>) ReflectionTestUtils.getField(queue, "recovered");
+        assertEquals(1, recovered.size());
+        assertEquals(2L, recovered.get(0)[1]);
+        assertEquals(RECORD_SIZE * 2, Files.size(journal));
+    }
+
+    @Test
+    void runtimeCompactionDropsAckedOrders() throws IOException {
+        queue = newQueue(RECORD_SIZE * 10);
+        for (long id = 1; id <= 8; id++) {
+            queue.publish(id, 100 + id, 9);
+        }
+        for (long id = 1; id <= 6; id++) {
+            ReflectionTestUtils.invokeMethod(queue, "appendRecord", (byte) 'A', order(id));
+        }
+        assertEquals(RECORD_SIZE * 14, Files.size(journal));
+        ReflectionTestUtils.invokeMethod(queue, "compactIfNeeded");
+        //只剩下7、8两个未确认的订单
+        assertEquals(RECORD_SIZE * 2, Files.size(journal));
+        //压缩后继续追加到新文件
+        queue.publish(9, 109, 9);
+        Map<Long, long[]> live = RingBufferOrderQueue.replay(
+                ByteBuffer.wrap(Files.readAllBytes(journal)), new LinkedHashMap<>());
+        assertEquals(Arrays.asList(7L, 8L, 9L), new ArrayList<>(live.keySet()));
+    }
+
+    @Test
+    void compactionSkippedBelowThreshold() throws IOException {
+        queue = newQueue(RECORD_SIZE * 10);
+        queue.publish(1, 101, 9);
+        ReflectionTestUtils.invokeMethod(queue, "appendRecord", (byte) 'A', order(1));
+        ReflectionTestUtils.invokeMethod(queue, "compactIfNeeded");
+        assertEquals(RECORD_SIZE * 2, Files.size(journal));
+    }
+
+    private RingBufferOrderQueue newQueue(long compactThresholdBytes) {
+        RingBufferOrderQueue q = new RingBufferOrderQueue();
+        ReflectionTestUtils.setField(q, "capacity", 16);
+        ReflectionTestUtils.setField(q, "journalPath", journal.toString());
+        ReflectionTestUtils.setField(q, "compactThresholdBytes", compactThresholdBytes);
+        ReflectionTestUtils.setField(q, "batchSize", 4);
+        ReflectionTestUtils.invokeMethod(q, "init");
+        return q;
+    }
+
+    private static long[] record(char type, long orderId) {
+        return new long[]{type, orderId, 100 + orderId, 9};
+    }
+
+    private static ByteBuffer records(long[]... records) {
+        ByteBuffer buffer = ByteBuffer.allocate(records.length * RECORD_SIZE);
+        for (long[] r : records) {
+            buffer.put((byte) r[0]).putLong(r[1]).putLong(r[2]).putLong(r[3]);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static VoucherOrder order(long orderId) {
+        VoucherOrder voucherOrder = new VoucherOrder();
+        voucherOrder.setId(orderId);
+        voucherOrder.setUserId(100 + orderId);
+        voucherOrder.setVoucherId(9L);
+        return voucherOrder;
+    }
+}
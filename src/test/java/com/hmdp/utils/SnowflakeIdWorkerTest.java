@@ -0,0 +1,122 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SnowflakeIdWorkerTest {
+
+    private static final long BEGIN_MILLIS = 1640995200000L;
+
+    private SnowflakeIdWorker worker;
+
+    @BeforeEach
+    void setUp() {
+        //不访问redis，直接设置已经租到的worker id
+        worker = new SnowflakeIdWorker();
+        ReflectionTestUtils.setField(worker, "leaseTtlMillis", 30000L);
+        ReflectionTestUtils.setField(worker, "maxBackwardMillis", 1000L);
+        ReflectionTestUtils.setField(worker, "workerId", 7L);
+        ReflectionTestUtils.setField(worker, "leaseDeadline", Long.MAX_VALUE);
+    }
+
+    @Test
+    void idsAreUniqueAndIncreasing() {
+        //远超一毫秒4096个序列号，序列号用完时进位到下一毫秒
+        long last = 0;
+        for (int i = 0; i < 20000; i++) {
+            long id = worker.nextId();
+            assertTrue(id > last);
+            assertEquals(7L, workerOf(id));
+            last = id;
+        }
+    }
+
+    @Test
+    void sequenceOverflowCarriesIntoNextMillisecond() {
+        long timestamp = System.currentTimeMillis() - BEGIN_MILLIS + 500;
+        //逻辑时间领先系统时钟500ms，序列号只剩最后一个
+        state().set(timestamp << 12 | 4094);
+        long first = worker.nextId();
+        long second = worker.nextId();
+        assertEquals(timestamp, timestampOf(first));
+        assertEquals(4095, first & 4095);
+        assertEquals(timestamp + 1, timestampOf(second));
+        assertEquals(0, second & 4095);
+    }
+
+    @Test
+    void smallClockBackwardContinuesLogicalTime() {
+        long ahead = System.currentTimeMillis() - BEGIN_MILLIS + 800;
+        state().set(ahead << 12);
+        assertTrue(worker.isAvailable());
+        long id = worker.nextId();
+        assertEquals(ahead, timestampOf(id));
+        assertEquals(1, id & 4095);
+    }
+
+    @Test
+    void largeClockBackwardWaitsForClock() {
+        long ahead = System.currentTimeMillis() - BEGIN_MILLIS + 1300;
+        state().set(ahead << 12);
+        //需要等待时不可用，调用方退回redis格式
+        assertFalse(worker.isAvailable());
+        long id = worker.nextId();
+        assertTrue(timestampOf(id) >= ahead);
+        //返回时系统时钟已经追到允许的回拨范围内，不依赖等待了多久
+        assertTrue(System.currentTimeMillis() - BEGIN_MILLIS >= timestampOf(id) - 1000);
+    }
+
+    @Test
+    void noLeaseThrows() {
+        ReflectionTestUtils.setField(worker, "leaseDeadline", System.currentTimeMillis() - 1);
+        assertFalse(worker.isAvailable());
+        assertThrows(IllegalStateException.class, worker::nextId);
+    }
+
+    @Test
+    void resumeAfterTakeover() {
+        long recorded = 1700000000000L;
+        //正常释放：紧接着上一个持有者的发号进度
+        assertEquals(recorded + 1, worker.resumeMillis(recorded, true));
+        //租约过期：上一个持有者最后一次续期后直到租约到期都可能发号
+        assertEquals(recorded + 30000, worker.resumeMillis(recorded, false));
+    }
+
+    @Test
+    void concurrentIdsAreUnique() throws InterruptedException {
+        Set<Long> ids = Collections.synchronizedSet(new HashSet<>());
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 5000; i++) {
+                    ids.add(worker.nextId());
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(40000, ids.size());
+    }
+
+    private AtomicLong state() {
+        return (AtomicLong) ReflectionTestUtils.getField(worker, "state");
+    }
+
+    private static long timestampOf(long id) {
+        return (id >>> 22) & ((1L << 40) - 1);
+    }
+
+    private static long workerOf(long id) {
+        return (id >>> 12) & 1023;
+    }
+}